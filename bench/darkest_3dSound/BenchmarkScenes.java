@@ -0,0 +1,94 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * BenchmarkScenes creates the ears, walls and edges the benchmarks are run against. The 
+ * scenes don't need an area or any game objects, so the benchmarks can be run without 
+ * starting the engine. 
+ * <p> 
+ * The benchmarks are written for JMH and run with "gradle jmh" once the engine jars are 
+ * in the lib folder (see build.gradle). The JMH options are passed as arguments, for 
+ * example gradle jmh --args="PrepareBenchmark -p fanWidth=360".
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public class BenchmarkScenes
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * The width of the benchmark room (in pixels)
+	 */
+	public static final int ROOM_WIDTH = 800;
+	/**
+	 * The height of the benchmark room (in pixels)
+	 */
+	public static final int ROOM_HEIGHT = 600;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private BenchmarkScenes()
+	{
+		// The constructor is hidden since the interface is static
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * @return A pair of ears on the right side of the room. The layout isn't tied to any 
+	 * ear objects.
+	 */
+	public static EarLayout createEars()
+	{
+		return new EarLayout(new double[] {600, 630}, new double[] {300, 300}, 
+				new double[] {10, 10}, new Ear.Side[] {Ear.Side.LEFT, Ear.Side.RIGHT}, 
+				new Ear[2]);
+	}
+	
+	/**
+	 * @param withWalls Should the room be surrounded by walls
+	 * @return The walls of the room or an empty grid
+	 */
+	public static WallGrid createWalls(boolean withWalls)
+	{
+		if (!withWalls)
+			return WallGrid.EMPTY;
+		
+		List<SoundWall> walls = new ArrayList<SoundWall>();
+		walls.add(new SoundWall(0, 0, ROOM_WIDTH, 0, 3));
+		walls.add(new SoundWall(ROOM_WIDTH, 0, ROOM_WIDTH, ROOM_HEIGHT, 3));
+		walls.add(new SoundWall(ROOM_WIDTH, ROOM_HEIGHT, 0, ROOM_HEIGHT, 3));
+		walls.add(new SoundWall(0, ROOM_HEIGHT, 0, 0, 3));
+		// A pillar between the source and the ears
+		walls.add(new SoundWall(400, 260, 400, 340, 6));
+		
+		return new WallGrid(walls, SoundGeometry.DEFAULT_CELL_SIZE);
+	}
+	
+	/**
+	 * Creates a buffer of random edges where about half of the edges are duplicates
+	 * @param edges How many edges the buffer will contain
+	 * @param seed The seed of the random values
+	 * @return A buffer full of edges
+	 */
+	public static EdgeBuffer createEdges(int edges, long seed)
+	{
+		Random random = new Random(seed);
+		EdgeBuffer buffer = new EdgeBuffer(edges);
+		int steps = Math.max(1, edges / 8);
+		
+		for (int i = 0; i < edges; i++)
+		{
+			buffer.add(random.nextInt(steps) + random.nextDouble(), -random.nextInt(4), 
+					null, random.nextBoolean() ? Ear.Side.LEFT : Ear.Side.RIGHT);
+		}
+		
+		return buffer;
+	}
+}
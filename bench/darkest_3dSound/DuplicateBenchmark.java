@@ -0,0 +1,93 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import darkest_utility.Util;
+
+/**
+ * DuplicateBenchmark measures how long it takes to merge the duplicate edges. The buffer 
+ * version is what a sound source does before playing a sound, the list version is what is 
+ * done to freshly cast edges.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DuplicateBenchmark
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How many edges there are before merging
+	 */
+	@Param({"10", "100", "1000"})
+	public int edges;
+	
+	private EdgeBuffer original, work;
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Creates the edges
+	 */
+	@Setup
+	public void setUp()
+	{
+		this.original = BenchmarkScenes.createEdges(this.edges, 17);
+		this.work = this.original.copy();
+	}
+	
+	/**
+	 * @return How many edges were merged
+	 */
+	@Benchmark
+	public int mergeBuffer()
+	{
+		this.work.copyFrom(this.original);
+		return this.work.mergeDuplicates(80);
+	}
+	
+	/**
+	 * @return How many edges were left after merging
+	 */
+	@Benchmark
+	public int mergeList()
+	{
+		// The edges travel to the middle of their step so that the duplicates have the same
+		// distance attenuation
+		ArrayList<SoundEdge> list = new ArrayList<SoundEdge>(this.original.size());
+		for (int i = 0; i < this.original.size(); i++)
+		{
+			list.add(SoundEdge.obtain(80, -this.original.getVolumeAdjustment(i), 
+					(Math.floor(this.original.getDelaySteps(i)) + 0.5) * 
+					Util.SOUND_SPEED_PIXELS_PER_STEP, null, this.original.getSide(i)));
+		}
+		
+		ArrayList<SoundEdge> merged = SoundEdge.mergeDuplicates(list);
+		for (SoundEdge edge : merged)
+		{
+			edge.release();
+		}
+		
+		return merged.size();
+	}
+}
@@ -0,0 +1,122 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PrepareBenchmark measures how long it takes for a sound source to prepare its edges. 
+ * The full preparation casts the rays, creates the edges and merges the duplicates, just 
+ * like {@link SoundSource#prepareForSound()} does when the edges aren't cached.
+ * <p> 
+ * {@link SoundSource#prepareForSound()} itself isn't benchmarked since a source can't be 
+ * created without an area and a running game. The benchmark calls 
+ * {@link PropagationRequest#solve(RayCaster, EdgeCache, EdgeSnapshot)} instead, which 
+ * does all of the source's work except capturing the ears and publishing the snapshot.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrepareBenchmark
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How wide the source's fan is (in degrees)
+	 */
+	@Param({"90", "180", "360"})
+	public int fanWidth;
+	
+	/**
+	 * How many degrees each ray covers
+	 */
+	@Param({"5", "10", "20"})
+	public double degreesForParticle;
+	
+	/**
+	 * Is the source surrounded by walls
+	 */
+	@Param({"false", "true"})
+	public boolean withWalls;
+	
+	/**
+	 * Are wide fans cast in parallel
+	 */
+	@Param({"false", "true"})
+	public boolean parallel;
+	
+	private RayCaster caster;
+	private EarLayout ears;
+	private WallGrid walls;
+	private Point2D.Double origin;
+	private EdgeCache cache;
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Creates the scene
+	 */
+	@Setup
+	public void setUp()
+	{
+		this.caster = new RayCaster(this.degreesForParticle, 4);
+		this.caster.setParallel(this.parallel);
+		this.ears = BenchmarkScenes.createEars();
+		this.walls = BenchmarkScenes.createWalls(this.withWalls);
+		this.origin = new Point2D.Double(200, 300);
+		this.cache = new EdgeCache(256, 2, 1);
+	}
+	
+	/**
+	 * @return The edges calculated from scratch
+	 */
+	@Benchmark
+	public EdgeSnapshot prepare()
+	{
+		// A new cache is used so that nothing is reused
+		return createRequest().solve(this.caster, new EdgeCache(1, 2, 1), null);
+	}
+	
+	/**
+	 * @return The edges read from a cache that already holds them
+	 */
+	@Benchmark
+	public EdgeSnapshot prepareCached()
+	{
+		return createRequest().solve(this.caster, this.cache, null);
+	}
+	
+	/**
+	 * @return The rays that reached an ear
+	 */
+	@Benchmark
+	public ArrayList<RayHit> castHits()
+	{
+		return this.caster.castHits(this.origin, 0, this.fanWidth, this.ears, this.walls);
+	}
+	
+	private PropagationRequest createRequest()
+	{
+		return new PropagationRequest(this.origin, 0, this.fanWidth, 80, this.ears, 
+				this.walls);
+	}
+}
@@ -0,0 +1,96 @@
+package darkest_3dSound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SoundEdgeBenchmark measures how long it takes to create a single edge and to store it 
+ * into an edge buffer
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoundEdgeBenchmark
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private EdgeBuffer buffer;
+	private double distance;
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Creates the buffer
+	 */
+	@Setup
+	public void setUp()
+	{
+		this.buffer = new EdgeBuffer(1024);
+		this.distance = 100;
+	}
+	
+	/**
+	 * @return A new edge that isn't returned to the pool
+	 */
+	@Benchmark
+	public SoundEdge create()
+	{
+		return SoundEdge.obtain(80, 3, nextDistance(), null, Ear.Side.LEFT);
+	}
+	
+	/**
+	 * @return Was the recycled edge valid
+	 */
+	@Benchmark
+	public boolean createPooled()
+	{
+		SoundEdge edge = SoundEdge.obtain(80, 3, nextDistance(), null, Ear.Side.LEFT);
+		boolean valid = edge.isValid();
+		edge.release();
+		
+		return valid;
+	}
+	
+	/**
+	 * @return How many edges there are in the buffer
+	 */
+	@Benchmark
+	public int createIntoBuffer()
+	{
+		if (this.buffer.size() == 1024)
+			this.buffer.clear();
+		
+		SoundEdge edge = SoundEdge.obtain(80, 3, nextDistance(), null, Ear.Side.LEFT);
+		this.buffer.add(edge);
+		edge.release();
+		
+		return this.buffer.size();
+	}
+	
+	private double nextDistance()
+	{
+		// The distance grows so that the edges are always added to the end of the buffer
+		this.distance += 1;
+		if (this.distance > 10000)
+			this.distance = 100;
+		
+		return this.distance;
+	}
+}
@@ -0,0 +1,84 @@
+package darkest_3dSound;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import darkest_utility.Util;
+
+/**
+ * UtilBenchmark measures the volume calculations that are done for every edge. Each 
+ * benchmark goes through 1024 different distances.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private double[] distances;
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Creates the distances
+	 */
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(17);
+		this.distances = new double[1024];
+		for (int i = 0; i < this.distances.length; i++)
+		{
+			this.distances[i] = 1 + random.nextDouble() * Util.MAX_SOUND_DISTANCE;
+		}
+	}
+	
+	/**
+	 * @return The sum of the volume adjustments
+	 */
+	@Benchmark
+	public double volumeAdjustment()
+	{
+		double sum = 0;
+		for (int i = 0; i < this.distances.length; i++)
+		{
+			sum += Util.getVolumeAdjustment(this.distances[i]);
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * @return The sum of the volume lost
+	 */
+	@Benchmark
+	public double volumeLostInDistance()
+	{
+		double sum = 0;
+		for (int i = 0; i < this.distances.length; i++)
+		{
+			sum += Util.getVolumeLostInDistance(this.distances[i]);
+		}
+		
+		return sum;
+	}
+}
@@ -0,0 +1,313 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import genesis_logic.Actor;
+import omega_world.Area;
+
+/**
+ * AcousticWorld holds the objects sound interacts with in a single area: the ears and 
+ * the sound geometry. The ears are kept in a spatial hash of their own instead of the 
+ * area's collisionHandler, so the sound particles only have to be tested against the 
+ * ears near their path and the gameplay objects never have to be tested against the 
+ * particles. The ears tell the world when they are moved and the hash is also checked 
+ * once per step by the area's actorHandler.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class AcousticWorld implements Actor
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How wide and high the cells in the ear hash are by default (in pixels)
+	 */
+	public static final double DEFAULT_CELL_SIZE = 256;
+	
+	private static final Map<Area, AcousticWorld> WORLDS = 
+			new HashMap<Area, AcousticWorld>();
+	
+	private final Area area;
+	private final SoundGeometry geometry;
+	private final List<Ear> ears;
+	private final Map<Long, List<Ear>> cells;
+	private final Map<Ear, Long> earCells;
+	private double cellSize, maxEarRadius;
+	private boolean dead;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private AcousticWorld(Area area)
+	{
+		// Initializes attributes
+		this.area = area;
+		this.geometry = SoundGeometry.forArea(area);
+		this.ears = new ArrayList<Ear>();
+		this.cells = new HashMap<Long, List<Ear>>();
+		this.earCells = new HashMap<Ear, Long>();
+		this.cellSize = DEFAULT_CELL_SIZE;
+		this.maxEarRadius = 0;
+		this.dead = false;
+	}
+	
+	
+	// IMPLEMENTED METHODS	------------------------------
+	
+	@Override
+	public void activate()
+	{
+		// Can't be activated or deactivated
+	}
+	
+	@Override
+	public void inactivate()
+	{
+		// Can't be activated or deactivated
+	}
+	
+	@Override
+	public boolean isActive()
+	{
+		return true;
+	}
+	
+	@Override
+	public boolean isDead()
+	{
+		return this.dead;
+	}
+	
+	@Override
+	public void kill()
+	{
+		// The area gets a new world if it is used again
+		synchronized (WORLDS)
+		{
+			if (WORLDS.get(this.area) == this)
+				WORLDS.remove(this.area);
+		}
+		
+		this.dead = true;
+	}
+	
+	@Override
+	public synchronized void act(double steps)
+	{
+		// The ears that were moved without setPosition are rehashed here
+		for (Ear ear : this.ears)
+		{
+			rehash(ear);
+		}
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The sound walls of the world
+	 */
+	public SoundGeometry getGeometry()
+	{
+		return this.geometry;
+	}
+	
+	/**
+	 * @return The ears in the world. Changes made to the list won't affect the world.
+	 */
+	public synchronized List<Ear> getEars()
+	{
+		return new ArrayList<Ear>(this.ears);
+	}
+	
+	/**
+	 * Changes the size of the cells in the ear hash. Small cells suit short queries 
+	 * while the queries that cover many cells are slower.
+	 * @param cellSize How wide and high each cell is (in pixels)
+	 */
+	public synchronized void setCellSize(double cellSize)
+	{
+		this.cellSize = cellSize;
+		
+		this.cells.clear();
+		this.earCells.clear();
+		for (Ear ear : this.ears)
+		{
+			addToCell(ear, getCell(ear.getX(), ear.getY()));
+		}
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the acoustic world of the given area. A new world is created and added to 
+	 * the area's actorHandler if the area didn't have one yet.
+	 * @param area The area whose world is requested
+	 * @return The acoustic world of the area
+	 */
+	public static AcousticWorld forArea(Area area)
+	{
+		synchronized (WORLDS)
+		{
+			AcousticWorld world = WORLDS.get(area);
+			if (world == null)
+			{
+				world = new AcousticWorld(area);
+				WORLDS.put(area, world);
+				area.getActorHandler().addActor(world);
+			}
+			
+			return world;
+		}
+	}
+	
+	/**
+	 * Kills the acoustic world of the given area and forgets the area's sound geometry. 
+	 * This should be called when the area is no longer used.
+	 * @param area The area whose world is removed
+	 */
+	public static void forget(Area area)
+	{
+		AcousticWorld world;
+		synchronized (WORLDS)
+		{
+			world = WORLDS.get(area);
+		}
+		
+		if (world != null)
+			world.kill();
+		SoundGeometry.forget(area);
+	}
+	
+	/**
+	 * Adds an ear to the world
+	 * @param ear The ear that will be added
+	 */
+	public synchronized void addEar(Ear ear)
+	{
+		this.ears.add(ear);
+		addToCell(ear, getCell(ear.getX(), ear.getY()));
+		
+		if (ear.getRadius() > this.maxEarRadius)
+			this.maxEarRadius = ear.getRadius();
+	}
+	
+	/**
+	 * Removes an ear from the world
+	 * @param ear The ear that will be removed
+	 */
+	public synchronized void removeEar(Ear ear)
+	{
+		if (this.ears.remove(ear))
+			removeFromCell(ear);
+	}
+	
+	/**
+	 * Moves the ear to the cell of its current position. This should be called whenever 
+	 * the ear moves.
+	 * @param ear The ear that has moved
+	 */
+	public synchronized void updateEar(Ear ear)
+	{
+		if (this.earCells.containsKey(ear))
+			rehash(ear);
+	}
+	
+	/**
+	 * Finds the ears that may be close to the given line segment. The ears further away 
+	 * are left out, but not all of the found ears are necessarily close enough.
+	 * @param startX The x-coordinate of the segment's start (in pixels)
+	 * @param startY The y-coordinate of the segment's start (in pixels)
+	 * @param endX The x-coordinate of the segment's end (in pixels)
+	 * @param endY The y-coordinate of the segment's end (in pixels)
+	 * @param distance How far from the segment the ears may be (in pixels)
+	 * @param result The list the found ears are added to
+	 */
+	public synchronized void findEars(double startX, double startY, double endX, 
+			double endY, double distance, List<Ear> result)
+	{
+		if (this.ears.isEmpty())
+			return;
+		
+		// The ears are hashed by their centers, so the search area is widened by their
+		// radius
+		double margin = distance + this.maxEarRadius;
+		int firstColumn = getColumnOrRow(Math.min(startX, endX) - margin);
+		int lastColumn = getColumnOrRow(Math.max(startX, endX) + margin);
+		int firstRow = getColumnOrRow(Math.min(startY, endY) - margin);
+		int lastRow = getColumnOrRow(Math.max(startY, endY) + margin);
+		
+		// When there are more cells than ears, it's faster to check all of the ears
+		long cellCount = (long) (lastColumn - firstColumn + 1) * 
+				(lastRow - firstRow + 1);
+		if (cellCount >= this.ears.size())
+		{
+			result.addAll(this.ears);
+			return;
+		}
+		
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				List<Ear> cell = this.cells.get(getKey(column, row));
+				if (cell != null)
+					result.addAll(cell);
+			}
+		}
+	}
+	
+	private void rehash(Ear ear)
+	{
+		long cell = getCell(ear.getX(), ear.getY());
+		if (this.earCells.get(ear) != cell)
+		{
+			removeFromCell(ear);
+			addToCell(ear, cell);
+		}
+	}
+	
+	private void addToCell(Ear ear, long key)
+	{
+		List<Ear> cell = this.cells.get(key);
+		if (cell == null)
+		{
+			cell = new ArrayList<Ear>();
+			this.cells.put(key, cell);
+		}
+		cell.add(ear);
+		this.earCells.put(ear, key);
+	}
+	
+	private void removeFromCell(Ear ear)
+	{
+		Long key = this.earCells.remove(ear);
+		if (key == null)
+			return;
+		
+		List<Ear> cell = this.cells.get(key);
+		cell.remove(ear);
+		if (cell.isEmpty())
+			this.cells.remove(key);
+	}
+	
+	private long getCell(double x, double y)
+	{
+		return getKey(getColumnOrRow(x), getColumnOrRow(y));
+	}
+	
+	private int getColumnOrRow(double coordinate)
+	{
+		return (int) Math.floor(coordinate / this.cellSize);
+	}
+	
+	private static long getKey(int column, int row)
+	{
+		return ((long) column << 32) | (row & 0xFFFFFFFFL);
+	}
+}
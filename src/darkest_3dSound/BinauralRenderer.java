@@ -0,0 +1,175 @@
+package darkest_3dSound;
+
+import darkest_utility.AttenuationTable;
+import darkest_utility.Util;
+import flux_wav.WavSound;
+
+/**
+ * BinauralRenderer combines the left and right edges of the same path into a single 
+ * stereo voice. The sound reaches the nearer ear sooner (interaural time difference) and 
+ * louder (interaural level difference), and both differences are turned into a pan 
+ * between the ears instead of playing the edges hard panned on separate voices. This 
+ * halves the number of voices and lets the sound move smoothly between the ears.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class BinauralRenderer
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How far apart (in pixels) the ears are assumed to be when the edges aren't tied to 
+	 * ear objects
+	 */
+	public static final double DEFAULT_HEAD_WIDTH = Util.metersToPixels(0.2);
+	
+	/**
+	 * A renderer that pairs edges whose volumes differ by at most 12 desibels
+	 */
+	public static final BinauralRenderer DEFAULT = new BinauralRenderer(12);
+	
+	private static final AttenuationTable ATTENUATION = AttenuationTable.getDefault();
+	
+	private final int maxLevelDifference;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new renderer
+	 * @param maxLevelDifference How many desibels the volumes of two edges may differ 
+	 * before they are considered separate paths
+	 */
+	public BinauralRenderer(int maxLevelDifference)
+	{
+		// Initializes attributes
+		this.maxLevelDifference = maxLevelDifference;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Combines the edges into stereo voices. Two edges are combined when they lead to 
+	 * the opposite sides of the head, their delays differ by no more than the time it 
+	 * takes for the sound to travel between the ears and their volumes are close enough. 
+	 * The edges that don't have a pair are hard panned to their own side.
+	 * @param edges The edges that are combined
+	 * @param delays The array the voices' delays are written into (in steps). Must be as 
+	 * long as the edge buffer.
+	 * @param volumes The array the voices' volume adjustments are written into (in 
+	 * desibels). Must be as long as the edge buffer.
+	 * @param pans The array the voices' pans are written into [-1, 1]. Must be as long 
+	 * as the edge buffer.
+	 * @return How many voices there are
+	 */
+	public int pair(EdgeBuffer edges, double[] delays, double[] volumes, double[] pans)
+	{
+		boolean[] paired = new boolean[edges.size()];
+		int voices = 0;
+		
+		// Since the edges are sorted by delay, the first edge of a pair is always the one
+		// that reaches the nearer ear
+		for (int first = 0; first < edges.size(); first++)
+		{
+			if (paired[first])
+				continue;
+			
+			int second = findPair(edges, first, paired);
+			if (second < 0)
+			{
+				delays[voices] = edges.getDelaySteps(first);
+				volumes[voices] = edges.getVolumeAdjustment(first);
+				pans[voices] = edges.getSide(first).getPan();
+			}
+			else
+			{
+				paired[second] = true;
+				int firstVolume = edges.getVolumeAdjustment(first);
+				int secondVolume = edges.getVolumeAdjustment(second);
+				double firstEnergy = ATTENUATION.getEnergy(firstVolume);
+				double secondEnergy = ATTENUATION.getEnergy(secondVolume);
+				double difference = edges.getDelaySteps(second) - 
+						edges.getDelaySteps(first);
+				
+				// The level difference pans the sound by the share of the energy and
+				// the time difference by how close it is to the largest possible
+				// difference
+				double levelPan = (firstEnergy - secondEnergy) / 
+						(firstEnergy + secondEnergy);
+				double timePan = Math.min(1, difference / 
+						getMaxTimeDifference(edges, first, second));
+				double towardsFirst = (levelPan + timePan) / 2;
+				
+				// The voice starts when the sound reaches the nearer ear. Since panning
+				// only weakens the quieter side, the voice is as loud as the louder
+				// edge.
+				delays[voices] = edges.getDelaySteps(first);
+				volumes[voices] = Math.max(firstVolume, secondVolume);
+				pans[voices] = Math.max(-1, Math.min(1, edges.getSide(first).getPan() * 
+						towardsFirst));
+			}
+			voices ++;
+		}
+		
+		return voices;
+	}
+	
+	/**
+	 * Schedules the sound through the edges so that the edges of the same path are 
+	 * played as a single voice
+	 * @param edges The edges the sound travels through
+	 * @param sound The sound that is played
+	 * @param startVolume How loud the sound is at its source (in desibels)
+	 * @param scheduler The scheduler that plays the voices
+	 * @param owner The object that plays the sound
+	 * @return How many voices were scheduled
+	 */
+	public int schedule(EdgeBuffer edges, WavSound sound, int startVolume, 
+			SoundScheduler scheduler, Object owner)
+	{
+		double[] delays = new double[edges.size()];
+		double[] volumes = new double[edges.size()];
+		double[] pans = new double[edges.size()];
+		int voices = pair(edges, delays, volumes, pans);
+		
+		for (int i = 0; i < voices; i++)
+		{
+			scheduler.schedule(delays[i], sound, startVolume, volumes[i], pans[i], owner);
+		}
+		
+		return voices;
+	}
+	
+	private int findPair(EdgeBuffer edges, int first, boolean[] paired)
+	{
+		for (int second = first + 1; second < edges.size(); second++)
+		{
+			double difference = edges.getDelaySteps(second) - edges.getDelaySteps(first);
+			if (difference > getMaxTimeDifference(edges, first, second))
+				return -1;
+			
+			if (!paired[second] && edges.getSide(second) != edges.getSide(first) && 
+					Math.abs(edges.getVolumeAdjustment(second) -
+					edges.getVolumeAdjustment(first)) <= this.maxLevelDifference)
+				return second;
+		}
+		
+		return -1;
+	}
+	
+	private static double getMaxTimeDifference(EdgeBuffer edges, int first, int second)
+	{
+		// The sound can't take longer to travel between the ears than the distance
+		// between them. A small margin is left for the rounding of the edges.
+		Ear firstEar = edges.getTarget(first);
+		Ear secondEar = edges.getTarget(second);
+		double headWidth = DEFAULT_HEAD_WIDTH;
+		if (firstEar != null && secondEar != null && firstEar != secondEar)
+			headWidth = Math.hypot(firstEar.getX() - secondEar.getX(), 
+					firstEar.getY() - secondEar.getY());
+		
+		return 1.1 * Math.max(1, headWidth) / Util.SOUND_SPEED_PIXELS_PER_STEP;
+	}
+}
@@ -3,15 +3,11 @@ package darkest_3dSound;
 import genesis_graphic.DepthConstants;
 
 import java.awt.Graphics2D;
-import java.awt.geom.Point2D;
-import java.awt.geom.Point2D.Double;
-import java.util.ArrayList;
+import java.util.List;
 
 import darkest_utility.Util;
-import omega_gameplay.Collidable;
-import omega_gameplay.CollidingDrawnObject;
-import omega_gameplay.CollisionType;
 import omega_world.Area;
+import omega_world.DrawnObject;
 
 /**
  * Ears receive sounds. Only those sounds can be heard that find an ear.
@@ -19,13 +15,18 @@ import omega_world.Area;
  * @author Mikko Hilpinen
  * @since 16.10.2014
  */
-public class Ear extends CollidingDrawnObject
+public class Ear extends DrawnObject
 {
 	// ATTRIBUTES	--------------------------------------------------------
 	
-	private Side side;
+	/**
+	 * How many desibels of volume a sound loses when it reaches the ear from the other 
+	 * side of the head
+	 */
+	public static final int HEAD_SHADOW = 6;
 	
-	private static final Class<?>[] COLLISIONCLASSES = {SoundParticle.class};
+	private Side side;
+	private AcousticWorld world;
 	
 	
 	// CONSTRUCTOR	-----------------------------------------
@@ -40,52 +41,44 @@ public class Ear extends CollidingDrawnObject
 	 */
 	public Ear(int x, int y, Side side, Area area)
 	{
-		super(x, y, DepthConstants.NORMAL, true, CollisionType.CIRCLE, area);
+		super(x, y, DepthConstants.NORMAL, area);
 		
 		// Initializes attributes
 		this.side = side;
+		this.world = AcousticWorld.forArea(area);
 		
-		setCircleCollisionPrecision(1, 1, 1);
+		// The ears are drawn by the SoundDebugOverlay
+		setInvisible();
 		
-		// Adds the object to the handler(s)
-		area.getCollisionHandler().addCollisionListener(this);
+		// Adds the object to the acoustic world instead of the collision handler
+		this.world.addEar(this);
 	}
 	
 	
 	// IMPLEMENTED METHODS	-------------------------------
-
-	@Override
-	public void onCollision(ArrayList<Double> colpoints, Collidable collided,
-			double steps)
-	{
-		// When the ear collides with a soundParticle, informs it
-		if (collided instanceof SoundParticle)
-			((SoundParticle) collided).onEarCollision(this);
-	}
 	
 	@Override
-	public Class<?>[] getSupportedListenerClasses()
+	public void kill()
 	{
-		return COLLISIONCLASSES;
+		this.world.removeEar(this);
+		super.kill();
 	}
 
 	@Override
-	public int getHeight()
+	public void setPosition(double x, double y)
 	{
-		return (int) Util.metersToPixels(0.05);
-	}
-
-	@Override
-	public int getWidth()
-	{
-		return (int) Util.metersToPixels(0.06);
+		super.setPosition(x, y);
+		
+		// The particles find the ears through the acoustic world, so the world has to
+		// know where the ear is before any particle acts again
+		if (this.world != null)
+			this.world.updateEar(this);
 	}
 
 	@Override
 	public void drawSelfBasic(Graphics2D g2d)
 	{
-		// Draws a circle
-		g2d.drawOval(0, 0, getWidth(), getHeight());
+		// The ears are drawn in a single pass by the SoundDebugOverlay
 	}
 
 	@Override
@@ -100,19 +93,24 @@ public class Ear extends CollidingDrawnObject
 		return getHeight() / 2;
 	}
 	
-	@Override
-	public boolean pointCollides(Point2D absolutepoint)
+	
+	// GETTERS & SETTERS	-------------------------
+	
+	/**
+	 * @return How wide the ear is (in pixels)
+	 */
+	public int getWidth()
 	{
-		if (getSide() == Side.LEFT)
-			return super.pointCollides(absolutepoint) && 
-					negateTransformations(absolutepoint).getX() < getOriginX();
-		
-		return super.pointCollides(absolutepoint) && 
-				negateTransformations(absolutepoint).getX() > getOriginX();
+		return (int) Util.metersToPixels(0.06);
 	}
 	
-	
-	// GETTERS & SETTERS	-------------------------
+	/**
+	 * @return How high the ear is (in pixels)
+	 */
+	public int getHeight()
+	{
+		return (int) Util.metersToPixels(0.05);
+	}
 	
 	/**
 	 * @return The side of the head the ear is on
@@ -122,6 +120,28 @@ public class Ear extends CollidingDrawnObject
 		return this.side;
 	}
 	
+	/**
+	 * @return How large the ear's radius is (in pixels)
+	 */
+	public double getRadius()
+	{
+		return Math.max(getWidth(), getHeight()) / 2.0;
+	}
+	
+	
+	// OTHER METHODS	-----------------------------
+	
+	/**
+	 * Finds all the ears that currently reside in the given area
+	 * @param area The area the ears are searched from
+	 * @return A list containing the ears in the area. Changes made to the list won't affect 
+	 * the ears
+	 */
+	public static List<Ear> getEars(Area area)
+	{
+		return AcousticWorld.forArea(area).getEars();
+	}
+	
 	
 	// ENUMERATIONS	---------------------------------
 	
@@ -152,5 +172,21 @@ public class Ear extends CollidingDrawnObject
 			else
 				return 1;
 		}
+		
+		/**
+		 * Tells whether a sound arrives at an ear on this side from the other side of 
+		 * the head. Only the half of the ear that faces away from the head hears the 
+		 * sound directly.
+		 * @param offset How far right (in pixels) from the ear's center the sound 
+		 * arrives at the ear
+		 * @return Is the sound shadowed by the head (see {@link Ear#HEAD_SHADOW})
+		 */
+		public boolean isShadowed(double offset)
+		{
+			if (this == LEFT)
+				return offset > 0;
+			else
+				return offset < 0;
+		}
 	}
 }
@@ -0,0 +1,178 @@
+package darkest_3dSound;
+
+import java.util.List;
+
+import omega_world.Area;
+
+/**
+ * EarLayout is an immutable snapshot of the ears in an area. Sound propagation is 
+ * calculated against a layout so that the ears can't move in the middle of the calculation.
+ * 
+ * @author Mikko Hilpinen
+ * @since 18.10.2014
+ */
+public class EarLayout
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final double[] xs, ys, radii;
+	private final Ear.Side[] sides;
+	private final Ear[] ears;
+	private final int signature;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new layout from the given ear data. All the arrays should be of the same 
+	 * length.
+	 * 
+	 * @param xs The x-coordinates of the ears (in pixels)
+	 * @param ys The y-coordinates of the ears (in pixels)
+	 * @param radii The radii of the ears (in pixels)
+	 * @param sides The sides of the ears
+	 * @param ears The ears the data was read from
+	 */
+	EarLayout(double[] xs, double[] ys, double[] radii, Ear.Side[] sides, Ear[] ears)
+	{
+		// Initializes attributes
+		this.xs = xs;
+		this.ys = ys;
+		this.radii = radii;
+		this.sides = sides;
+		this.ears = ears;
+		this.signature = calculateSignature();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many ears there are in the layout
+	 */
+	public int size()
+	{
+		return this.ears.length;
+	}
+	
+	/**
+	 * @param index The index of the ear
+	 * @return The x-coordinate of the ear (in pixels)
+	 */
+	public double getX(int index)
+	{
+		return this.xs[index];
+	}
+	
+	/**
+	 * @param index The index of the ear
+	 * @return The y-coordinate of the ear (in pixels)
+	 */
+	public double getY(int index)
+	{
+		return this.ys[index];
+	}
+	
+	/**
+	 * @param index The index of the ear
+	 * @return The radius of the ear (in pixels)
+	 */
+	public double getRadius(int index)
+	{
+		return this.radii[index];
+	}
+	
+	/**
+	 * @param index The index of the ear
+	 * @return The side of the head the ear is on
+	 */
+	public Ear.Side getSide(int index)
+	{
+		return this.sides[index];
+	}
+	
+	/**
+	 * @param index The index of the ear
+	 * @return The ear at the given index. Null if the layout was created from plain data 
+	 * (see {@link #create(double[], double[], double[], Ear.Side[])}).
+	 */
+	public Ear getEar(int index)
+	{
+		return this.ears[index];
+	}
+	
+	/**
+	 * @return A hash of the positions, sizes and sides of the ears. Two layouts with the 
+	 * same signature are very likely identical.
+	 */
+	public int getSignature()
+	{
+		return this.signature;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Captures the current state of the ears in the given area
+	 * @param area The area whose ears are captured
+	 * @return A layout of the ears in the area
+	 */
+	public static EarLayout capture(Area area)
+	{
+		List<Ear> ears = Ear.getEars(area);
+		
+		double[] xs = new double[ears.size()];
+		double[] ys = new double[ears.size()];
+		double[] radii = new double[ears.size()];
+		Ear.Side[] sides = new Ear.Side[ears.size()];
+		Ear[] earArray = new Ear[ears.size()];
+		
+		for (int i = 0; i < ears.size(); i++)
+		{
+			Ear ear = ears.get(i);
+			xs[i] = ear.getX();
+			ys[i] = ear.getY();
+			radii[i] = ear.getRadius();
+			sides[i] = ear.getSide();
+			earArray[i] = ear;
+		}
+		
+		return new EarLayout(xs, ys, radii, sides, earArray);
+	}
+	
+	/**
+	 * Creates a layout from plain ear data. The layout isn't tied to any ear objects, so 
+	 * it can be used without an area or a game window. All the arrays should be of the 
+	 * same length.
+	 * @param xs The x-coordinates of the ears (in pixels)
+	 * @param ys The y-coordinates of the ears (in pixels)
+	 * @param radii The radii of the ears (in pixels)
+	 * @param sides The sides of the ears
+	 * @return A layout of the given ears
+	 */
+	public static EarLayout create(double[] xs, double[] ys, double[] radii, 
+			Ear.Side[] sides)
+	{
+		if (ys.length != xs.length || radii.length != xs.length || sides.length != xs.length)
+			throw new IllegalArgumentException( 
+					"The ear data arrays must be of the same length");
+		
+		return new EarLayout(xs.clone(), ys.clone(), radii.clone(), sides.clone(), 
+				new Ear[xs.length]);
+	}
+	
+	private int calculateSignature()
+	{
+		int hash = 17;
+		for (int i = 0; i < size(); i++)
+		{
+			hash = 31 * hash + Double.valueOf(this.xs[i]).hashCode();
+			hash = 31 * hash + Double.valueOf(this.ys[i]).hashCode();
+			hash = 31 * hash + Double.valueOf(this.radii[i]).hashCode();
+			hash = 31 * hash + this.sides[i].ordinal();
+		}
+		
+		return hash;
+	}
+}
@@ -0,0 +1,380 @@
+package darkest_3dSound;
+
+import java.util.Arrays;
+import java.util.List;
+
+import darkest_utility.AttenuationTable;
+import darkest_utility.Util;
+
+/**
+ * EdgeBuffer stores edges in primitive arrays instead of separate objects. The edges are 
+ * kept in ascending delay order, so playing and merging them only walks through the 
+ * arrays from start to end. Reading the edges doesn't allocate anything and a buffer can 
+ * be copied into another with a few array copies.
+ * 
+ * @author Mikko Hilpinen
+ * @since 25.10.2014
+ */
+public class EdgeBuffer
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private float[] delays;
+	private short[] volumes;
+	private byte[] targets;
+	private int size;
+	
+	private Ear[] ears;
+	private Ear.Side[] sides;
+	private int targetCount;
+	
+	// These are used when merging the duplicates
+	private short[] originalVolumes;
+	private double[] energies;
+	private boolean[] merged;
+	
+	private static final AttenuationTable ATTENUATION = AttenuationTable.getDefault();
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new empty buffer
+	 */
+	public EdgeBuffer()
+	{
+		this(16);
+	}
+	
+	/**
+	 * Creates a new empty buffer
+	 * @param capacity How many edges the buffer can hold before it has to grow
+	 */
+	public EdgeBuffer(int capacity)
+	{
+		// Initializes attributes
+		this.delays = new float[Math.max(1, capacity)];
+		this.volumes = new short[this.delays.length];
+		this.targets = new byte[this.delays.length];
+		this.size = 0;
+		this.ears = new Ear[2];
+		this.sides = new Ear.Side[2];
+		this.targetCount = 0;
+		this.originalVolumes = null;
+		this.energies = null;
+		this.merged = null;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many edges there are in the buffer
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * @return Are there no edges in the buffer
+	 */
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+	
+	/**
+	 * @param index The index of the edge
+	 * @return How long it takes for the sound to travel through the edge (in steps). The 
+	 * delays never decrease as the index grows.
+	 */
+	public double getDelaySteps(int index)
+	{
+		return this.delays[index];
+	}
+	
+	/**
+	 * @param index The index of the edge
+	 * @return How much the volume of the sound is adjusted on the edge (in desibels)
+	 */
+	public int getVolumeAdjustment(int index)
+	{
+		return this.volumes[index];
+	}
+	
+	/**
+	 * @param index The index of the edge
+	 * @return The ear the edge leads to
+	 */
+	public Ear getTarget(int index)
+	{
+		return this.ears[this.targets[index] & 0xFF];
+	}
+	
+	/**
+	 * @param index The index of the edge
+	 * @return The side of the head the edge leads to
+	 */
+	public Ear.Side getSide(int index)
+	{
+		return this.sides[this.targets[index] & 0xFF];
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Adds the edge to the buffer. The edge's information is copied so the edge itself may 
+	 * be released afterwards.
+	 * @param edge The edge that is added
+	 */
+	public void add(SoundEdge edge)
+	{
+		add(edge.getDelaySteps(), edge.getVolumeAdjustment(), edge.getTarget(), 
+				edge.getSide());
+	}
+	
+	/**
+	 * Adds all of the edges to the buffer. The edges are appended to the end of the 
+	 * buffer and the buffer is sorted once afterwards, so adding n edges takes 
+	 * O(n log n) time instead of shifting the later edges on every insert. The edges with 
+	 * the same delay stay in the order they were added in.
+	 * @param edges The edges that are added
+	 */
+	public void addAll(List<SoundEdge> edges)
+	{
+		ensureCapacity(this.size + edges.size());
+		boolean sorted = true;
+		for (int i = 0; i < edges.size(); i++)
+		{
+			SoundEdge edge = edges.get(i);
+			float delay = (float) edge.getDelaySteps();
+			if (this.size > 0 && this.delays[this.size - 1] > delay)
+				sorted = false;
+			
+			this.targets[this.size] = getTargetIndex(edge.getTarget(), edge.getSide());
+			this.delays[this.size] = delay;
+			this.volumes[this.size] = (short) edge.getVolumeAdjustment();
+			this.size ++;
+		}
+		
+		if (!sorted)
+			sortByDelay();
+	}
+	
+	/**
+	 * Adds a new edge to the buffer
+	 * @param delaySteps How long it takes for the sound to travel through the edge (in 
+	 * steps)
+	 * @param volumeAdjustment How much the volume of the sound is adjusted on the edge (in 
+	 * desibels)
+	 * @param target The ear the edge leads to
+	 * @param side The side of the head the edge leads to
+	 */
+	public void add(double delaySteps, int volumeAdjustment, Ear target, Ear.Side side)
+	{
+		byte targetIndex = getTargetIndex(target, side);
+		ensureCapacity(this.size + 1);
+		
+		// The edge is placed after the edges with the same or smaller delay
+		float delay = (float) delaySteps;
+		int index = this.size;
+		while (index > 0 && this.delays[index - 1] > delay)
+		{
+			index --;
+		}
+		
+		int moved = this.size - index;
+		if (moved > 0)
+		{
+			System.arraycopy(this.delays, index, this.delays, index + 1, moved);
+			System.arraycopy(this.volumes, index, this.volumes, index + 1, moved);
+			System.arraycopy(this.targets, index, this.targets, index + 1, moved);
+		}
+		
+		this.delays[index] = delay;
+		this.volumes[index] = (short) volumeAdjustment;
+		this.targets[index] = targetIndex;
+		this.size ++;
+	}
+	
+	/**
+	 * Removes all the edges from the buffer. The buffer keeps its capacity.
+	 */
+	public void clear()
+	{
+		this.size = 0;
+		Arrays.fill(this.ears, 0, this.targetCount, null);
+		this.targetCount = 0;
+	}
+	
+	/**
+	 * Replaces the contents of this buffer with the contents of another buffer. Nothing is 
+	 * allocated if this buffer is already large enough.
+	 * @param other The buffer whose edges are copied
+	 */
+	public void copyFrom(EdgeBuffer other)
+	{
+		clear();
+		ensureCapacity(other.size);
+		
+		System.arraycopy(other.delays, 0, this.delays, 0, other.size);
+		System.arraycopy(other.volumes, 0, this.volumes, 0, other.size);
+		System.arraycopy(other.targets, 0, this.targets, 0, other.size);
+		this.size = other.size;
+		
+		if (this.ears.length < other.targetCount)
+		{
+			this.ears = new Ear[other.ears.length];
+			this.sides = new Ear.Side[other.sides.length];
+		}
+		System.arraycopy(other.ears, 0, this.ears, 0, other.targetCount);
+		System.arraycopy(other.sides, 0, this.sides, 0, other.targetCount);
+		this.targetCount = other.targetCount;
+	}
+	
+	/**
+	 * @return A copy of this buffer
+	 */
+	public EdgeBuffer copy()
+	{
+		EdgeBuffer copy = new EdgeBuffer(this.size);
+		copy.copyFrom(this);
+		return copy;
+	}
+	
+	/**
+	 * Merges the duplicate edges in the buffer. Two edges are duplicates if they lead to 
+	 * the same side, their volume adjustments are the same and their delays are within the 
+	 * same whole step (see {@link SoundEdge#isDuplicateWith(SoundEdge)}). The acoustic 
+	 * energy of the merged edges is added to the edge that is kept.
+	 * @param startVolume How loud the sound is at the source (in desibels). The merged 
+	 * edges are never louder than {@link Util#MAX_SOUND_VOLUME}.
+	 * @return How many edges were merged into other edges
+	 */
+	public int mergeDuplicates(int startVolume)
+	{
+		if (this.originalVolumes == null || this.originalVolumes.length < this.size)
+		{
+			this.originalVolumes = new short[this.delays.length];
+			this.energies = new double[this.delays.length];
+			this.merged = new boolean[this.delays.length];
+		}
+		
+		// Since the edges are sorted, the possible duplicates are always next to each other
+		int kept = 0, runStart = 0;
+		for (int read = 0; read < this.size; read++)
+		{
+			int step = (int) this.delays[read];
+			if (kept > 0 && (int) this.delays[runStart] != step)
+				runStart = kept;
+			
+			int duplicate = -1;
+			for (int i = runStart; i < kept; i++)
+			{
+				if (this.originalVolumes[i] == this.volumes[read] && 
+						this.sides[this.targets[i] & 0xFF] ==
+						this.sides[this.targets[read] & 0xFF])
+				{
+					duplicate = i;
+					break;
+				}
+			}
+			
+			if (duplicate < 0)
+			{
+				this.delays[kept] = this.delays[read];
+				this.volumes[kept] = this.volumes[read];
+				this.targets[kept] = this.targets[read];
+				this.originalVolumes[kept] = this.volumes[read];
+				this.energies[kept] = getEnergy(this.volumes[read]);
+				this.merged[kept] = false;
+				kept ++;
+			}
+			else
+			{
+				this.energies[duplicate] += getEnergy(this.volumes[read]);
+				this.merged[duplicate] = true;
+			}
+		}
+		
+		// Makes the edges that absorbed duplicates louder
+		for (int i = 0; i < kept; i++)
+		{
+			if (this.merged[i])
+				this.volumes[i] = (short) Math.min(Util.MAX_SOUND_VOLUME - startVolume, 
+						Math.round(10 * Math.log10(this.energies[i])));
+		}
+		
+		int mergedEdges = this.size - kept;
+		this.size = kept;
+		return mergedEdges;
+	}
+	
+	private byte getTargetIndex(Ear ear, Ear.Side side)
+	{
+		for (int i = 0; i < this.targetCount; i++)
+		{
+			if (this.ears[i] == ear && this.sides[i] == side)
+				return (byte) i;
+		}
+		
+		if (this.targetCount == 256)
+			throw new IllegalStateException( 
+					"An edge buffer can't hold edges to more than 256 different ears");
+		
+		if (this.targetCount == this.ears.length)
+		{
+			this.ears = Arrays.copyOf(this.ears, this.ears.length * 2);
+			this.sides = Arrays.copyOf(this.sides, this.sides.length * 2);
+		}
+		
+		this.ears[this.targetCount] = ear;
+		this.sides[this.targetCount] = side;
+		return (byte) this.targetCount++;
+	}
+	
+	private void sortByDelay()
+	{
+		// The edges are sorted through keys that hold the delay in the upper bits and the
+		// original index in the lower bits, which keeps the sort stable. The sign bit is
+		// flipped around so that the float bits sort like the floats do.
+		long[] keys = new long[this.size];
+		for (int i = 0; i < this.size; i++)
+		{
+			int bits = Float.floatToIntBits(this.delays[i]);
+			bits ^= (bits >> 31) & 0x7FFFFFFF;
+			keys[i] = ((long) bits << 32) | i;
+		}
+		Arrays.sort(keys);
+		
+		float[] delays = Arrays.copyOf(this.delays, this.size);
+		short[] volumes = Arrays.copyOf(this.volumes, this.size);
+		byte[] targets = Arrays.copyOf(this.targets, this.size);
+		for (int i = 0; i < this.size; i++)
+		{
+			int original = (int) keys[i];
+			this.delays[i] = delays[original];
+			this.volumes[i] = volumes[original];
+			this.targets[i] = targets[original];
+		}
+	}
+	
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= this.delays.length)
+			return;
+		
+		int newCapacity = Math.max(capacity, this.delays.length * 2);
+		this.delays = Arrays.copyOf(this.delays, newCapacity);
+		this.volumes = Arrays.copyOf(this.volumes, newCapacity);
+		this.targets = Arrays.copyOf(this.targets, newCapacity);
+	}
+	
+	private static double getEnergy(int volumeAdjustment)
+	{
+		// Converts the desibels into relative sound intensity
+		return ATTENUATION.getEnergy(volumeAdjustment);
+	}
+}
@@ -0,0 +1,239 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * EdgeCache remembers the edges calculated for recently visited source positions. The 
+ * positions and directions are quantized so that a source returning close to a previously 
+ * visited spot can reuse the old edges. The least recently used edge sets are discarded 
+ * once the cache is full. The signature of the ears and walls is a part of each entry's 
+ * key, so a cache can be shared by many areas and ear layouts. The edges of a layout 
+ * that is no longer used are eventually discarded like any other unused edges.
+ * 
+ * @author Mikko Hilpinen
+ * @since 19.10.2014
+ */
+public class EdgeCache
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final LinkedHashMap<Key, EdgeSnapshot> entries;
+	private final int capacity;
+	private double positionQuantum, directionQuantum;
+	private long hits, misses, evictions;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new empty cache
+	 * 
+	 * @param capacity How many edge sets the cache can hold at maximum
+	 * @param positionQuantum How close (in pixels) two positions must be in order to share 
+	 * the same edges
+	 * @param directionQuantum How close (in degrees) two directions must be in order to 
+	 * share the same edges
+	 */
+	public EdgeCache(int capacity, double positionQuantum, double directionQuantum)
+	{
+		// Initializes attributes
+		this.capacity = capacity;
+		this.positionQuantum = positionQuantum;
+		this.directionQuantum = directionQuantum;
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+		
+		this.entries = new LinkedHashMap<Key, EdgeSnapshot>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, EdgeSnapshot> eldest)
+			{
+				if (size() > EdgeCache.this.capacity)
+				{
+					EdgeCache.this.evictions ++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many edge sets the cache can hold at maximum
+	 */
+	public int getCapacity()
+	{
+		return this.capacity;
+	}
+	
+	/**
+	 * @return How many edge sets the cache currently holds
+	 */
+	public synchronized int size()
+	{
+		return this.entries.size();
+	}
+	
+	/**
+	 * @return How many times the requested edges were found from the cache
+	 */
+	public synchronized long getHits()
+	{
+		return this.hits;
+	}
+	
+	/**
+	 * @return How many times the requested edges were not found from the cache
+	 */
+	public synchronized long getMisses()
+	{
+		return this.misses;
+	}
+	
+	/**
+	 * @return How many edge sets have been discarded because the cache was full
+	 */
+	public synchronized long getEvictions()
+	{
+		return this.evictions;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the edges previously calculated for the given source state
+	 * 
+	 * @param position The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source
+	 * @param layoutSignature The signature of the current ears and walls
+	 * @return The cached edges or null if there were no edges for the given state
+	 */
+	public synchronized EdgeSnapshot get(Point2D.Double position, double direction, 
+			int fanWidth, int volume, int layoutSignature)
+	{
+		EdgeSnapshot edges = this.entries.get(createKey(position, direction, fanWidth, 
+				volume, layoutSignature));
+		
+		if (edges == null)
+			this.misses ++;
+		else
+			this.hits ++;
+		
+		return edges;
+	}
+	
+	/**
+	 * Stores the edges calculated for the given source state
+	 * 
+	 * @param position The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source
+	 * @param layoutSignature The signature of the ears and walls the edges were calculated 
+	 * against
+	 * @param edges The edges that were calculated
+	 */
+	public synchronized void put(Point2D.Double position, double direction, int fanWidth, 
+			int volume, int layoutSignature, EdgeSnapshot edges)
+	{
+		this.entries.put(createKey(position, direction, fanWidth, volume, layoutSignature), 
+				edges);
+	}
+	
+	/**
+	 * Removes all the edges from the cache
+	 */
+	public synchronized void clear()
+	{
+		this.entries.clear();
+	}
+	
+	/**
+	 * Resets the hit, miss and eviction counters
+	 */
+	public synchronized void resetCounters()
+	{
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+	
+	private Key createKey(Point2D.Double position, double direction, int fanWidth, 
+			int volume, int layoutSignature)
+	{
+		// Directions 0 and 360 are the same
+		int directionSteps = (int) Math.round(360 / this.directionQuantum);
+		int quantizedDirection = (int) Math.round(direction / this.directionQuantum) % 
+				directionSteps;
+		if (quantizedDirection < 0)
+			quantizedDirection += directionSteps;
+		
+		return new Key((int) Math.floor(position.getX() / this.positionQuantum), 
+				(int) Math.floor(position.getY() / this.positionQuantum), 
+				quantizedDirection, fanWidth, volume, layoutSignature);
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private static class Key
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private final int x, y, direction, fanWidth, volume, layoutSignature;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public Key(int x, int y, int direction, int fanWidth, int volume, 
+				int layoutSignature)
+		{
+			this.x = x;
+			this.y = y;
+			this.direction = direction;
+			this.fanWidth = fanWidth;
+			this.volume = volume;
+			this.layoutSignature = layoutSignature;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public int hashCode()
+		{
+			int hash = 17;
+			hash = 31 * hash + this.x;
+			hash = 31 * hash + this.y;
+			hash = 31 * hash + this.direction;
+			hash = 31 * hash + this.fanWidth;
+			hash = 31 * hash + this.volume;
+			hash = 31 * hash + this.layoutSignature;
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			
+			Key other = (Key) obj;
+			return this.x == other.x && this.y == other.y && 
+					this.direction == other.direction && this.fanWidth == other.fanWidth && 
+					this.volume == other.volume && 
+					this.layoutSignature == other.layoutSignature;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package darkest_3dSound;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import darkest_3dSound.SoundMetrics.Metric;
+import darkest_utility.AttenuationTable;
+import darkest_utility.Util;
+
+/**
+ * EdgeMixer renders a sound through all of its edges into a single stereo stream. Each 
+ * edge is mixed in with a sample accurate delay and its own gain, so playing a sound only 
+ * requires a single audio line no matter how many paths the sound takes. Dense edge sets 
+ * are compiled into an impulse response and streamed through a partitioned convolver 
+ * instead.
+ * 
+ * @author Mikko Hilpinen
+ * @since 20.10.2014
+ */
+public class EdgeMixer
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How many desibels of gain a single edge can have at maximum
+	 */
+	public static final double MAX_EDGE_GAIN = 6;
+	
+	private static final AttenuationTable ATTENUATION = AttenuationTable.getDefault();
+	
+	private final AtomicInteger openLines;
+	private int convolutionThreshold, blockSize;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new mixer
+	 */
+	public EdgeMixer()
+	{
+		// Initializes attributes
+		this.openLines = new AtomicInteger();
+		this.convolutionThreshold = 16;
+		this.blockSize = 1024;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many audio lines opened by this mixer are currently playing
+	 */
+	public int getOpenLines()
+	{
+		return this.openLines.get();
+	}
+	
+	/**
+	 * @return How many edges there must be before a sound is streamed through a convolver 
+	 * instead of being mixed directly
+	 */
+	public int getConvolutionThreshold()
+	{
+		return this.convolutionThreshold;
+	}
+	
+	/**
+	 * Changes how many edges there must be before a sound is streamed through a convolver 
+	 * instead of being mixed directly
+	 * @param threshold The new edge count threshold
+	 */
+	public void setConvolutionThreshold(int threshold)
+	{
+		this.convolutionThreshold = threshold;
+	}
+	
+	/**
+	 * Changes how many samples are convolved at once when a sound is streamed
+	 * @param blockSize The new block size. Must be a power of two.
+	 */
+	public void setBlockSize(int blockSize)
+	{
+		this.blockSize = blockSize;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Renders the clip through the given edges and plays the result on a single line
+	 * @param clip The clip that is played
+	 * @param edges The edges the sound travels through
+	 * @throws LineUnavailableException If no audio line could be opened
+	 */
+	public void play(PcmClip clip, EdgeBuffer edges) throws LineUnavailableException
+	{
+		if (edges.isEmpty())
+			return;
+		
+		// Dense edge sets are streamed through a convolver
+		if (edges.size() >= this.convolutionThreshold)
+		{
+			stream(clip, edges);
+			return;
+		}
+		
+		byte[] data = toPcm(render(clip, edges));
+		AudioFormat format = new AudioFormat(clip.getSampleRate(), 16, 2, true, false);
+		
+		Clip line = AudioSystem.getClip();
+		line.addLineListener(new LineCloser());
+		line.open(format, data, 0, data.length);
+		this.openLines.incrementAndGet();
+		line.start();
+		SoundMetrics.record(Metric.VOICES_STARTED, 1);
+	}
+	
+	/**
+	 * Renders the clip through the given edges
+	 * @param clip The clip that is rendered
+	 * @param edges The edges the sound travels through
+	 * @return Interleaved stereo samples (left, right, left, ...). The edges are scaled 
+	 * down the same way as in the streamed impulse responses (see 
+	 * {@link #getHeadroom(EdgeBuffer)}), so the samples stay in [-1, 1].
+	 */
+	public float[] render(PcmClip clip, EdgeBuffer edges)
+	{
+		// The last edge has the longest delay
+		int maxDelay = 0;
+		if (!edges.isEmpty())
+			maxDelay = getDelaySamples(edges, edges.size() - 1, clip.getSampleRate());
+		
+		float[] source = clip.getSamples();
+		float[] output = new float[(source.length + maxDelay) * 2];
+		
+		// Adds each edge to the stream
+		float headroom = getHeadroom(edges);
+		for (int edge = 0; edge < edges.size(); edge++)
+		{
+			int offset = getDelaySamples(edges, edge, clip.getSampleRate()) * 2;
+			float leftGain = headroom * getChannelGain(edges, edge, 
+					ImpulseResponse.LEFT);
+			float rightGain = headroom * getChannelGain(edges, edge, 
+					ImpulseResponse.RIGHT);
+			
+			for (int i = 0; i < source.length; i++)
+			{
+				output[offset + 2 * i] += source[i] * leftGain;
+				output[offset + 2 * i + 1] += source[i] * rightGain;
+			}
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates how many samples the sound is delayed on the given edge
+	 * @param edges The edges the sound travels through
+	 * @param edge The index of the edge
+	 * @param sampleRate How many samples there are in a second
+	 * @return How many samples the sound is delayed
+	 */
+	protected static int getDelaySamples(EdgeBuffer edges, int edge, float sampleRate)
+	{
+		return (int) Math.round(Util.stepsToSeconds(edges.getDelaySteps(edge)) * sampleRate);
+	}
+	
+	/**
+	 * Calculates the linear gain the sound gets on the given edge
+	 * @param edges The edges the sound travels through
+	 * @param edge The index of the edge
+	 * @return The amplitude multiplier of the sound
+	 */
+	protected static double getGain(EdgeBuffer edges, int edge)
+	{
+		return ATTENUATION.getGain(Math.min(MAX_EDGE_GAIN, edges.getVolumeAdjustment(edge)));
+	}
+	
+	/**
+	 * Calculates the linear gain the sound gets on a single channel on the given edge
+	 * @param edges The edges the sound travels through
+	 * @param edge The index of the edge
+	 * @param channel The channel ({@link ImpulseResponse#LEFT} or 
+	 * {@link ImpulseResponse#RIGHT})
+	 * @return The amplitude multiplier of the sound on the given channel
+	 */
+	protected static float getChannelGain(EdgeBuffer edges, int edge, int channel)
+	{
+		double pan = edges.getSide(edge).getPan();
+		if (channel == ImpulseResponse.LEFT)
+			return (float) (getGain(edges, edge) * Math.min(1, 1 - pan));
+		else
+			return (float) (getGain(edges, edge) * Math.min(1, 1 + pan));
+	}
+	
+	/**
+	 * Calculates how much the edges have to be scaled so that the mixed sound can't 
+	 * clip. The louder channel can't be louder than the sum of its gains, so the gains are 
+	 * scaled down when the sum is over 1. The same scale is used whether the sound is 
+	 * mixed directly or streamed through a convolver, so the level doesn't jump when the 
+	 * number of edges crosses the convolution threshold.
+	 * @param edges The edges the sound travels through
+	 * @return The multiplier applied to the gains of all the edges (0, 1]
+	 */
+	protected static float getHeadroom(EdgeBuffer edges)
+	{
+		double left = 0, right = 0;
+		for (int edge = 0; edge < edges.size(); edge++)
+		{
+			left += getChannelGain(edges, edge, ImpulseResponse.LEFT);
+			right += getChannelGain(edges, edge, ImpulseResponse.RIGHT);
+		}
+		
+		return (float) (1 / Math.max(1, Math.max(left, right)));
+	}
+	
+	/**
+	 * Transforms the samples into 16 bit little endian pcm
+	 * @param samples The samples [-1, 1]
+	 * @return The pcm data
+	 */
+	protected static byte[] toPcm(float[] samples)
+	{
+		byte[] data = new byte[samples.length * 2];
+		for (int i = 0; i < samples.length; i++)
+		{
+			int value = Math.round(Math.max(-1, Math.min(1, samples[i])) * Short.MAX_VALUE);
+			data[2 * i] = (byte) value;
+			data[2 * i + 1] = (byte) (value >> 8);
+		}
+		
+		return data;
+	}
+	
+	
+	private void stream(PcmClip clip, EdgeBuffer edges) throws LineUnavailableException
+	{
+		AudioFormat format = new AudioFormat(clip.getSampleRate(), 16, 2, true, false);
+		SourceDataLine line = AudioSystem.getSourceDataLine(format);
+		line.open(format, this.blockSize * 8);
+		this.openLines.incrementAndGet();
+		
+		PartitionedConvolver convolver = new PartitionedConvolver( 
+				ImpulseResponse.compile(edges, clip.getSampleRate()), this.blockSize);
+		Thread streamer = new Thread(new ConvolutionStreamer(clip, convolver, line), 
+				"Sound convolution");
+		streamer.setDaemon(true);
+		streamer.start();
+		SoundMetrics.record(Metric.VOICES_STARTED, 1);
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private class LineCloser implements LineListener
+	{
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public void update(LineEvent event)
+		{
+			// Closes the line once it has finished playing
+			if (event.getType() == LineEvent.Type.STOP)
+			{
+				event.getLine().close();
+				EdgeMixer.this.openLines.decrementAndGet();
+			}
+		}
+	}
+	
+	private class ConvolutionStreamer implements Runnable
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private PcmClip clip;
+		private PartitionedConvolver convolver;
+		private SourceDataLine line;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public ConvolutionStreamer(PcmClip clip, PartitionedConvolver convolver, 
+				SourceDataLine line)
+		{
+			this.clip = clip;
+			this.convolver = convolver;
+			this.line = line;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public void run()
+		{
+			int blockSize = this.convolver.getBlockSize();
+			int blocks = (this.clip.getLength() + blockSize - 1) / blockSize + 
+					this.convolver.getTailBlocks();
+			float[] output = new float[blockSize * 2];
+			
+			try
+			{
+				this.line.start();
+				
+				// Processes the sound block by block, including the tail of the response
+				for (int block = 0; block < blocks; block++)
+				{
+					this.convolver.process(this.clip.getSamples(), block * blockSize, output);
+					byte[] data = toPcm(output);
+					this.line.write(data, 0, data.length);
+				}
+				
+				this.line.drain();
+			}
+			finally
+			{
+				this.line.close();
+				EdgeMixer.this.openLines.decrementAndGet();
+			}
+		}
+	}
+}
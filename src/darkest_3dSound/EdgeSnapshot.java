@@ -0,0 +1,143 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EdgeSnapshot is an immutable set of edges calculated for a certain source state. Since 
+ * the snapshots can't change, they can be freely passed between threads.
+ * 
+ * @author Mikko Hilpinen
+ * @since 22.10.2014
+ */
+public class EdgeSnapshot
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final EdgeBuffer buffer;
+	private final List<RayHit> hits;
+	private final Point2D.Double origin, castOrigin;
+	private final double direction;
+	private final int fanWidth, layoutSignature;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new snapshot
+	 * 
+	 * @param edges The edges that were calculated. The edges are copied into the 
+	 * snapshot's buffer and released, so they must not be used afterwards.
+	 * @param hits The rays the edges were created from. Null if the edges weren't 
+	 * created by casting rays. The list is copied.
+	 * @param origin The position the edges start from (in pixels)
+	 * @param direction The direction the source was facing
+	 * @param fanWidth How wide the source's fan was (in degrees)
+	 * @param layoutSignature The signature of the ears and walls the edges were calculated 
+	 * against
+	 */
+	public EdgeSnapshot(List<SoundEdge> edges, List<RayHit> hits, Point2D.Double origin, 
+			double direction, int fanWidth, int layoutSignature)
+	{
+		this(edges, hits, origin, origin, direction, fanWidth, layoutSignature);
+	}
+	
+	/**
+	 * Creates a new snapshot whose hits were updated from an earlier snapshot instead of 
+	 * being cast from the snapshot's origin
+	 * 
+	 * @param edges The edges that were calculated. The edges are copied into the 
+	 * snapshot's buffer and released, so they must not be used afterwards.
+	 * @param hits The rays the edges were created from. The list is copied.
+	 * @param origin The position the edges start from (in pixels)
+	 * @param castOrigin The position the rays were last fully cast from (in pixels)
+	 * @param direction The direction the source was facing
+	 * @param fanWidth How wide the source's fan was (in degrees)
+	 * @param layoutSignature The signature of the ears and walls the edges were calculated 
+	 * against
+	 */
+	public EdgeSnapshot(List<SoundEdge> edges, List<RayHit> hits, Point2D.Double origin, 
+			Point2D.Double castOrigin, double direction, int fanWidth, int layoutSignature)
+	{
+		// Initializes attributes
+		this.buffer = new EdgeBuffer(edges.size());
+		this.buffer.addAll(edges);
+		for (int i = 0; i < edges.size(); i++)
+		{
+			edges.get(i).release();
+		}
+		if (hits == null)
+			this.hits = null;
+		else
+			this.hits = Collections.unmodifiableList(new ArrayList<RayHit>(hits));
+		this.origin = new Point2D.Double(origin.getX(), origin.getY());
+		this.castOrigin = new Point2D.Double(castOrigin.getX(), castOrigin.getY());
+		this.direction = direction;
+		this.fanWidth = fanWidth;
+		this.layoutSignature = layoutSignature;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The edges in the snapshot sorted by their delay. The buffer is shared so it 
+	 * must not be modified. Use {@link EdgeBuffer#copyFrom(EdgeBuffer)} instead.
+	 */
+	public EdgeBuffer getBuffer()
+	{
+		return this.buffer;
+	}
+	
+	/**
+	 * @return The rays the edges were created from. Null if the edges weren't created by 
+	 * casting rays. The list can't be modified.
+	 */
+	public List<RayHit> getHits()
+	{
+		return this.hits;
+	}
+	
+	/**
+	 * @return The position the edges start from (in pixels)
+	 */
+	public Point2D.Double getOrigin()
+	{
+		return new Point2D.Double(this.origin.getX(), this.origin.getY());
+	}
+	
+	/**
+	 * @return The position the rays were last fully cast from (in pixels). This is the 
+	 * same as the origin unless the hits were updated from an earlier snapshot.
+	 */
+	public Point2D.Double getCastOrigin()
+	{
+		return new Point2D.Double(this.castOrigin.getX(), this.castOrigin.getY());
+	}
+	
+	/**
+	 * @return The direction the source was facing
+	 */
+	public double getDirection()
+	{
+		return this.direction;
+	}
+	
+	/**
+	 * @return How wide the source's fan was (in degrees)
+	 */
+	public int getFanWidth()
+	{
+		return this.fanWidth;
+	}
+	
+	/**
+	 * @return The signature of the ears and walls the edges were calculated against
+	 */
+	public int getLayoutSignature()
+	{
+		return this.layoutSignature;
+	}
+}
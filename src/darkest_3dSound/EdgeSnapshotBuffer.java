@@ -0,0 +1,103 @@
+package darkest_3dSound;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * EdgeSnapshotBuffer is a double buffer of edge snapshots. The front snapshot is always 
+ * complete and can be used for playing sounds while the next snapshot is being calculated 
+ * in the background. Only the newest request is calculated if several requests are made 
+ * before the calculation starts.
+ * 
+ * @author Mikko Hilpinen
+ * @since 22.10.2014
+ */
+public class EdgeSnapshotBuffer
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private volatile EdgeSnapshot front, back;
+	private final AtomicReference<PropagationRequest> pending;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new empty buffer
+	 */
+	public EdgeSnapshotBuffer()
+	{
+		// Initializes attributes
+		this.front = null;
+		this.back = null;
+		this.pending = new AtomicReference<PropagationRequest>();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The newest complete snapshot. Null if no snapshot has been published yet.
+	 */
+	public EdgeSnapshot getFront()
+	{
+		return this.front;
+	}
+	
+	/**
+	 * @return The snapshot that was replaced by the current front snapshot. Null if there 
+	 * is no such snapshot.
+	 */
+	public EdgeSnapshot getBack()
+	{
+		return this.back;
+	}
+	
+	/**
+	 * @return Is there a request waiting to be calculated
+	 */
+	public boolean hasPendingRequest()
+	{
+		return this.pending.get() != null;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Makes the given snapshot the front snapshot
+	 * @param snapshot The newest complete snapshot
+	 */
+	public synchronized void publish(EdgeSnapshot snapshot)
+	{
+		this.back = this.front;
+		this.front = snapshot;
+	}
+	
+	/**
+	 * Replaces the pending request with a new one
+	 * @param request The newest request
+	 * @return Was there already a request waiting to be calculated
+	 */
+	protected boolean offer(PropagationRequest request)
+	{
+		return this.pending.getAndSet(request) != null;
+	}
+	
+	/**
+	 * @return The newest request waiting to be calculated
+	 */
+	protected PropagationRequest peek()
+	{
+		return this.pending.get();
+	}
+	
+	/**
+	 * Marks the given request as calculated, unless a newer request has been made
+	 * @param request The request that was calculated
+	 * @return Was the request still the newest one
+	 */
+	protected boolean complete(PropagationRequest request)
+	{
+		return this.pending.compareAndSet(request, null);
+	}
+}
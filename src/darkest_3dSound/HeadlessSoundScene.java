@@ -0,0 +1,255 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HeadlessSoundScene calculates sound propagation without an area, a game window or any 
+ * drawn objects. The ears and the walls are given as plain data and the sources are 
+ * described by their position, direction, fan and volume. The edges are calculated the 
+ * same way as in {@link SoundSource}, but they aren't tied to any ear objects, so the 
+ * scene can be used on servers and in tests where there is no display.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public class HeadlessSoundScene
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final RayCaster caster;
+	private final EdgeCache cache;
+	
+	private double[] earXs, earYs, earRadii;
+	private Ear.Side[] earSides;
+	private int earCount;
+	private EarLayout ears;
+	
+	private final List<SoundWall> walls;
+	private WallGrid grid;
+	private double cellSize;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new empty scene that casts the rays the same way as the sound sources do
+	 */
+	public HeadlessSoundScene()
+	{
+		this(new RayCaster(SoundSource.degreesForParticle, 4));
+	}
+	
+	/**
+	 * Creates a new empty scene
+	 * @param caster The rayCaster that calculates the edges
+	 */
+	public HeadlessSoundScene(RayCaster caster)
+	{
+		// Initializes attributes
+		this.caster = caster;
+		this.cache = new EdgeCache(256, 2, 1);
+		this.earXs = new double[2];
+		this.earYs = new double[2];
+		this.earRadii = new double[2];
+		this.earSides = new Ear.Side[2];
+		this.earCount = 0;
+		this.ears = null;
+		this.walls = new ArrayList<SoundWall>();
+		this.grid = WallGrid.EMPTY;
+		this.cellSize = SoundGeometry.DEFAULT_CELL_SIZE;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The rayCaster that calculates the edges
+	 */
+	public RayCaster getCaster()
+	{
+		return this.caster;
+	}
+	
+	/**
+	 * @return How many ears there are in the scene
+	 */
+	public synchronized int getEarCount()
+	{
+		return this.earCount;
+	}
+	
+	/**
+	 * @return The current ears of the scene. The layout is only recreated when the ears 
+	 * change.
+	 */
+	public synchronized EarLayout getEars()
+	{
+		if (this.ears == null)
+			this.ears = EarLayout.create(Arrays.copyOf(this.earXs, this.earCount), 
+					Arrays.copyOf(this.earYs, this.earCount), 
+					Arrays.copyOf(this.earRadii, this.earCount), 
+					Arrays.copyOf(this.earSides, this.earCount));
+		
+		return this.ears;
+	}
+	
+	/**
+	 * @return The current walls of the scene. The grid is only rebuilt when the walls 
+	 * change.
+	 */
+	public synchronized WallGrid getWalls()
+	{
+		if (this.grid == null)
+			this.grid = new WallGrid(this.walls, this.cellSize);
+		
+		return this.grid;
+	}
+	
+	/**
+	 * Changes the size of the cells in the wall grid
+	 * @param cellSize How wide and high each cell is (in pixels)
+	 */
+	public synchronized void setCellSize(double cellSize)
+	{
+		this.cellSize = cellSize;
+		this.grid = null;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Adds a new ear to the scene
+	 * @param x The x-coordinate of the ear (in pixels)
+	 * @param y The y-coordinate of the ear (in pixels)
+	 * @param radius The radius of the ear (in pixels)
+	 * @param side The side of the head the ear is on
+	 * @return The index of the new ear
+	 */
+	public synchronized int addEar(double x, double y, double radius, Ear.Side side)
+	{
+		if (this.earCount == this.earXs.length)
+		{
+			this.earXs = Arrays.copyOf(this.earXs, this.earCount * 2);
+			this.earYs = Arrays.copyOf(this.earYs, this.earCount * 2);
+			this.earRadii = Arrays.copyOf(this.earRadii, this.earCount * 2);
+			this.earSides = Arrays.copyOf(this.earSides, this.earCount * 2);
+		}
+		
+		this.earXs[this.earCount] = x;
+		this.earYs[this.earCount] = y;
+		this.earRadii[this.earCount] = radius;
+		this.earSides[this.earCount] = side;
+		this.ears = null;
+		
+		return this.earCount++;
+	}
+	
+	/**
+	 * Moves an ear to a new position
+	 * @param index The index of the ear
+	 * @param x The new x-coordinate of the ear (in pixels)
+	 * @param y The new y-coordinate of the ear (in pixels)
+	 */
+	public synchronized void setEarPosition(int index, double x, double y)
+	{
+		if (index < 0 || index >= this.earCount)
+			throw new IndexOutOfBoundsException("There's no ear at index " + index);
+		
+		this.earXs[index] = x;
+		this.earYs[index] = y;
+		this.ears = null;
+	}
+	
+	/**
+	 * Removes all the ears from the scene
+	 */
+	public synchronized void clearEars()
+	{
+		this.earCount = 0;
+		this.ears = null;
+	}
+	
+	/**
+	 * Adds a new wall to the scene
+	 * @param wall The wall that will be added
+	 */
+	public synchronized void addWall(SoundWall wall)
+	{
+		this.walls.add(wall);
+		this.grid = null;
+	}
+	
+	/**
+	 * Removes a wall from the scene
+	 * @param wall The wall that will be removed
+	 */
+	public synchronized void removeWall(SoundWall wall)
+	{
+		if (this.walls.remove(wall))
+			this.grid = null;
+	}
+	
+	/**
+	 * Removes all the walls from the scene
+	 */
+	public synchronized void clearWalls()
+	{
+		this.walls.clear();
+		this.grid = WallGrid.EMPTY;
+	}
+	
+	/**
+	 * Calculates the edges from a sound source to the ears of the scene
+	 * @param origin The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees) [1, 360]
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @return The edges from the source to the ears. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot propagate(Point2D.Double origin, double direction, int fanWidth, 
+			int volume)
+	{
+		return propagate(origin, direction, fanWidth, volume, null);
+	}
+	
+	/**
+	 * Calculates the edges from a sound source to the ears of the scene. If the source has 
+	 * moved only slightly, the previous edges are updated instead of being recalculated.
+	 * @param origin The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees) [1, 360]
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param previous The edges previously calculated for the same source. Null if there 
+	 * are no such edges.
+	 * @return The edges from the source to the ears. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot propagate(Point2D.Double origin, double direction, int fanWidth, 
+			int volume, EdgeSnapshot previous)
+	{
+		PropagationRequest request = new PropagationRequest(origin, direction, fanWidth, 
+				volume, getEars(), getWalls());
+		return request.solve(this.caster, this.cache, previous);
+	}
+	
+	/**
+	 * Calculates the edges from a sound source to the ears of the scene by looking them up 
+	 * from the scene's listener field (see {@link ListenerPathField}). The field is traced 
+	 * once for the current ears and walls and then shared by all the sources.
+	 * @param origin The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees) [1, 360]
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @return The edges from the source to the ears. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot propagateFromField(Point2D.Double origin, double direction, 
+			int fanWidth, int volume)
+	{
+		PropagationRequest request = new PropagationRequest(origin, direction, fanWidth, 
+				volume, getEars(), getWalls());
+		return request.solveWithListenerField(this.caster);
+	}
+}
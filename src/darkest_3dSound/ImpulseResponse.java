@@ -0,0 +1,118 @@
+package darkest_3dSound;
+
+import java.util.Arrays;
+
+/**
+ * ImpulseResponse is a sparse stereo impulse response compiled from a set of SoundEdges. 
+ * Each edge becomes a single tap with the edge's delay and gain on the channel of the ear 
+ * the edge leads to. Taps with the same delay are combined. The gains are scaled so that 
+ * the response can't make the sound clip.
+ * 
+ * @author Mikko Hilpinen
+ * @since 21.10.2014
+ */
+public class ImpulseResponse
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * The index of the left channel
+	 */
+	public static final int LEFT = 0;
+	/**
+	 * The index of the right channel
+	 */
+	public static final int RIGHT = 1;
+	
+	private final int[] delays;
+	private final float[][] gains;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private ImpulseResponse(int[] delays, float[][] gains)
+	{
+		// Initializes attributes
+		this.delays = delays;
+		this.gains = gains;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many non-zero taps there are in the response
+	 */
+	public int getTapCount()
+	{
+		return this.delays.length;
+	}
+	
+	/**
+	 * @param tap The index of the tap
+	 * @return How many samples the tap is delayed. The taps are in ascending delay order.
+	 */
+	public int getDelay(int tap)
+	{
+		return this.delays[tap];
+	}
+	
+	/**
+	 * @param tap The index of the tap
+	 * @param channel The channel of the gain ({@link #LEFT} or {@link #RIGHT})
+	 * @return The linear gain of the tap on the given channel
+	 */
+	public float getGain(int tap, int channel)
+	{
+		return this.gains[channel][tap];
+	}
+	
+	/**
+	 * @return How many samples long the response is
+	 */
+	public int getLength()
+	{
+		if (this.delays.length == 0)
+			return 0;
+		return this.delays[this.delays.length - 1] + 1;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Compiles the given edges into an impulse response
+	 * @param edges The edges the sound travels through
+	 * @param sampleRate How many samples there are in a second
+	 * @return An impulse response that contains all the edges. The gains are scaled down 
+	 * the same way as when the edges are mixed directly (see 
+	 * {@link EdgeMixer#getHeadroom(EdgeBuffer)}).
+	 */
+	public static ImpulseResponse compile(EdgeBuffer edges, float sampleRate)
+	{
+		// The edges are already in delay order. Edges with the same delay are combined into 
+		// a single tap.
+		int[] delays = new int[edges.size()];
+		float[][] gains = new float[2][edges.size()];
+		float headroom = EdgeMixer.getHeadroom(edges);
+		int taps = 0;
+		for (int edge = 0; edge < edges.size(); edge++)
+		{
+			int delay = EdgeMixer.getDelaySamples(edges, edge, sampleRate);
+			
+			if (taps == 0 || delays[taps - 1] != delay)
+			{
+				delays[taps] = delay;
+				taps ++;
+			}
+			
+			gains[LEFT][taps - 1] += headroom * 
+					EdgeMixer.getChannelGain(edges, edge, LEFT);
+			gains[RIGHT][taps - 1] += headroom * 
+					EdgeMixer.getChannelGain(edges, edge, RIGHT);
+		}
+		
+		return new ImpulseResponse(Arrays.copyOf(delays, taps), new float[][] {
+				Arrays.copyOf(gains[LEFT], taps), Arrays.copyOf(gains[RIGHT], taps)});
+	}
+}
@@ -0,0 +1,186 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+
+import darkest_utility.AttenuationTable;
+import darkest_utility.Util;
+
+/**
+ * LevelOfDetail decides how much work is spent on the edges of a sound source. Since no 
+ * path can be shorter than the straight line to an ear, the direct distance tells how 
+ * loud the sound can be at most. Sources that can't be heard even through the direct path 
+ * are culled without tracing anything, far away sources only get their direct paths and 
+ * only the sources near the ears are fully propagated.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class LevelOfDetail
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How far (in pixels) the sources can be from the closest ear and still be fully 
+	 * propagated by default
+	 */
+	public static final double DEFAULT_FULL_DISTANCE = Util.metersToPixels(30);
+	
+	/**
+	 * The level of detail the sound sources use by default
+	 */
+	public static final LevelOfDetail DEFAULT = new LevelOfDetail(DEFAULT_FULL_DISTANCE);
+	
+	private static final AttenuationTable ATTENUATION = AttenuationTable.getDefault();
+	
+	private final double fullDistance;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new level of detail
+	 * @param fullDistance How far (in pixels) a source can be from the closest ear and 
+	 * still be fully propagated. Sources further away only get their direct paths. 
+	 * Infinite if the audible sources should always be fully propagated.
+	 */
+	public LevelOfDetail(double fullDistance)
+	{
+		// Initializes attributes
+		this.fullDistance = fullDistance;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How far (in pixels) a source can be from the closest ear and still be fully 
+	 * propagated
+	 */
+	public double getFullDistance()
+	{
+		return this.fullDistance;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Decides how the edges of a request should be calculated
+	 * @param request The request whose edges are calculated
+	 * @return How much work should be spent on the request's edges
+	 */
+	public Tier getTier(PropagationRequest request)
+	{
+		EarLayout ears = request.getEars();
+		double closest = Double.POSITIVE_INFINITY;
+		boolean audible = false;
+		
+		for (int ear = 0; ear < ears.size(); ear++)
+		{
+			double distance = getDirectDistance(request, ear);
+			if (distance < closest)
+				closest = distance;
+			
+			// The direct path is the shortest and thus the loudest possible path. The
+			// comparison is done in doubles since the adjustment is infinite when the
+			// source is inside the ear. Rounding up never culls an audible edge.
+			if (distance <= Util.MAX_SOUND_DISTANCE && request.getVolume() + 
+					Math.ceil(ATTENUATION.getVolumeAdjustment(distance)) >= 
+					Util.MIN_SOUND_VOLUME)
+				audible = true;
+		}
+		
+		if (!audible)
+			return Tier.CULLED;
+		if (closest > this.fullDistance)
+			return Tier.DIRECT;
+		return Tier.FULL;
+	}
+	
+	/**
+	 * Creates the edges that lead straight from the source to the ears. The ears that are 
+	 * outside the source's fan or behind a wall can't be reached.
+	 * @param request The request whose edges are calculated
+	 * @return The valid direct edges of the request
+	 */
+	public static ArrayList<SoundEdge> createDirectEdges(PropagationRequest request)
+	{
+		EarLayout ears = request.getEars();
+		WallGrid walls = request.getWalls();
+		double x = request.getOrigin().getX();
+		double y = request.getOrigin().getY();
+		ArrayList<SoundEdge> edges = new ArrayList<SoundEdge>(ears.size());
+		
+		for (int ear = 0; ear < ears.size(); ear++)
+		{
+			double dx = ears.getX(ear) - x;
+			double dy = ears.getY(ear) - y;
+			double length = Math.sqrt(dx * dx + dy * dy);
+			double distance = getDirectDistance(request, ear);
+			
+			// The ear has to be inside the fan
+			if (request.getFanWidth() < 360 && length > 0)
+			{
+				double earHalfWidth = length > ears.getRadius(ear) ? Math.toDegrees( 
+						Math.asin(ears.getRadius(ear) / length)) : 180;
+				double difference = (Math.toDegrees(Math.atan2(-dy, dx)) - 
+						request.getDirection()) % 360;
+				if (difference < -180)
+					difference += 360;
+				else if (difference >= 180)
+					difference -= 360;
+				
+				if (Math.abs(difference) > request.getFanWidth() / 2.0 + earHalfWidth)
+					continue;
+			}
+			
+			// And there mustn't be any walls in between
+			if (length > 0 && walls.findFirstHit(x, y, dx / length, dy / length, distance, 
+					-1) >= 0)
+				continue;
+			
+			// The sound that arrives from the other side of the head is shadowed
+			int shadow = 0;
+			if (ears.getSide(ear).isShadowed(-dx))
+				shadow = Ear.HEAD_SHADOW;
+			
+			SoundEdge edge = SoundEdge.obtain(request.getVolume(), shadow, distance, 
+					ears.getEar(ear), ears.getSide(ear));
+			if (edge.isValid())
+				edges.add(edge);
+			else
+				edge.release();
+		}
+		
+		return edges;
+	}
+	
+	private static double getDirectDistance(PropagationRequest request, int ear)
+	{
+		EarLayout ears = request.getEars();
+		return Math.max(0, request.getOrigin().distance(ears.getX(ear), ears.getY(ear)) - 
+				ears.getRadius(ear));
+	}
+	
+	
+	// ENUMERATIONS	--------------------------------------
+	
+	/**
+	 * Tier tells how much work is spent on the edges of a source
+	 */
+	public enum Tier
+	{
+		/**
+		 * The source can't be heard, so it has no edges
+		 */
+		CULLED, 
+		/**
+		 * The source only has the direct edges that lead straight to the ears
+		 */
+		DIRECT, 
+		/**
+		 * The source is fully propagated, including the reflections
+		 */
+		FULL;
+	}
+}
@@ -0,0 +1,521 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import darkest_utility.Util;
+
+/**
+ * ListenerPathField holds the paths from the ears into the surrounding walls. Since the 
+ * paths are reciprocal, a beam cast from an ear that passes a sound source describes a 
+ * path from the source to the ear. The beams are traced once for each ear layout and the 
+ * edges of any number of sources are then found by looking up the beams that pass 
+ * them, so the cost grows with the number of ears instead of the number of sources. The 
+ * field is immutable and can be shared between threads. A field is reused until the ears 
+ * move further than the move tolerance from the positions it was traced from.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class ListenerPathField
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How far (in pixels) the ears can move by default before their field is traced again
+	 */
+	public static final double DEFAULT_MOVE_TOLERANCE = Util.metersToPixels(0.25);
+	
+	private static volatile double moveTolerance = DEFAULT_MOVE_TOLERANCE;
+	
+	private static final int MAX_CACHED_FIELDS = 4;
+	private static final Map<Integer, ListenerPathField> FIELDS = 
+			new LinkedHashMap<Integer, ListenerPathField>(MAX_CACHED_FIELDS, 0.75f, true);
+	
+	private final RayCaster caster;
+	private final EarLayout ears;
+	private final int layoutSignature, wallSignature;
+	private final double degreesPerRay, spread;
+	
+	// Each segment is a straight part of a beam between two reflections
+	private double[] xs, ys, dxs, dys, lengths, traveled;
+	private float[] volumesLost;
+	private int[] rays, earIndices, reflections;
+	private int segmentCount;
+	
+	private final int[][] cells;
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Traces a new field. The beams are as narrow as the narrowest beams of the rayCaster 
+	 * and they are reflected as many times as the rayCaster's beams.
+	 * 
+	 * @param caster The rayCaster whose beams the field imitates
+	 * @param ears The ears the beams are cast from
+	 * @param walls The walls that reflect the beams
+	 * @param cellSize How wide and high the cells of the lookup grid are (in pixels)
+	 */
+	public ListenerPathField(RayCaster caster, EarLayout ears, WallGrid walls, 
+			double cellSize)
+	{
+		// Initializes attributes
+		this.caster = caster;
+		this.ears = ears;
+		this.layoutSignature = 31 * ears.getSignature() + walls.getSignature();
+		this.wallSignature = walls.getSignature();
+		this.degreesPerRay = caster.getDegreesPerRay() / (1 << caster.getMaxDepth());
+		this.spread = RayCaster.getSpread(this.degreesPerRay);
+		this.cellSize = cellSize;
+		
+		int capacity = 64;
+		this.xs = new double[capacity];
+		this.ys = new double[capacity];
+		this.dxs = new double[capacity];
+		this.dys = new double[capacity];
+		this.lengths = new double[capacity];
+		this.traveled = new double[capacity];
+		this.volumesLost = new float[capacity];
+		this.rays = new int[capacity];
+		this.earIndices = new int[capacity];
+		this.reflections = new int[capacity];
+		this.segmentCount = 0;
+		
+		int rayCount = (int) Math.ceil(360 / this.degreesPerRay);
+		for (int ear = 0; ear < ears.size(); ear++)
+		{
+			for (int ray = 0; ray < rayCount; ray++)
+			{
+				traceSegments(ray, ear, walls);
+			}
+		}
+		
+		// The grid covers the beams inside the walls and around the ears. The beams that
+		// leave the walls may travel far, so the sources outside the grid are checked
+		// against all of the segments instead.
+		double[] bounds = getBounds(ears, walls, cellSize);
+		double minX = 0, minY = 0, maxX = 0, maxY = 0;
+		for (int i = 0; i < this.segmentCount; i++)
+		{
+			double reach = getReach(i, this.lengths[i]);
+			double endX = this.xs[i] + this.dxs[i] * this.lengths[i];
+			double endY = this.ys[i] + this.dys[i] * this.lengths[i];
+			
+			double left = Math.min(this.xs[i], endX) - reach;
+			double top = Math.min(this.ys[i], endY) - reach;
+			double right = Math.max(this.xs[i], endX) + reach;
+			double bottom = Math.max(this.ys[i], endY) + reach;
+			
+			if (i == 0 || left < minX)
+				minX = left;
+			if (i == 0 || top < minY)
+				minY = top;
+			if (i == 0 || right > maxX)
+				maxX = right;
+			if (i == 0 || bottom > maxY)
+				maxY = bottom;
+		}
+		
+		this.minX = Math.max(minX, bounds[0]);
+		this.minY = Math.max(minY, bounds[1]);
+		this.columns = Math.max(1, 
+				(int) Math.floor((Math.min(maxX, bounds[2]) - this.minX) / cellSize) + 1);
+		this.rows = Math.max(1, 
+				(int) Math.floor((Math.min(maxY, bounds[3]) - this.minY) / cellSize) + 1);
+		this.cells = createCells();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The rayCaster whose beams the field imitates
+	 */
+	public RayCaster getCaster()
+	{
+		return this.caster;
+	}
+	
+	/**
+	 * @return The ears the beams were cast from
+	 */
+	public EarLayout getEars()
+	{
+		return this.ears;
+	}
+	
+	/**
+	 * @return A hash of the ears and walls the field was traced against. The field has to 
+	 * be traced again when the signature changes.
+	 */
+	public int getLayoutSignature()
+	{
+		return this.layoutSignature;
+	}
+	
+	/**
+	 * @return How many straight beam segments there are in the field
+	 */
+	public int size()
+	{
+		return this.segmentCount;
+	}
+	
+	/**
+	 * @return How far (in pixels) the ears can move before their field is traced again
+	 */
+	public static double getMoveTolerance()
+	{
+		return moveTolerance;
+	}
+	
+	/**
+	 * Changes how far the ears can move before their field is traced again. The delays 
+	 * and volumes of the edges are off by at most as much as the ears have moved, but 
+	 * the beams don't have to be traced again each time a listener takes a step.
+	 * @param tolerance How far (in pixels) the ears can move before their field is 
+	 * traced again. 0 traces a new field whenever the ears move.
+	 */
+	public static void setMoveTolerance(double tolerance)
+	{
+		moveTolerance = tolerance;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds a field that was traced against the given ears and walls. The few most 
+	 * recently used fields are kept, so the sources that share the same ears and walls 
+	 * also share the same field. A field traced against the same walls is also used if 
+	 * none of the ears has moved further than the move tolerance since. A new field is 
+	 * traced if there is no such field yet.
+	 * 
+	 * @param caster The rayCaster whose beams the field imitates
+	 * @param ears The ears the beams are cast from
+	 * @param walls The walls that reflect the beams
+	 * @return A field for the given ears and walls
+	 */
+	public static ListenerPathField forLayout(RayCaster caster, EarLayout ears, 
+			WallGrid walls)
+	{
+		int signature = 31 * ears.getSignature() + walls.getSignature();
+		double degreesPerRay = caster.getDegreesPerRay() / (1 << caster.getMaxDepth());
+		synchronized (FIELDS)
+		{
+			ListenerPathField field = FIELDS.get(signature);
+			if (field != null && field.caster == caster && 
+					field.degreesPerRay == degreesPerRay)
+				return field;
+			
+			// The field traced from nearby positions is close enough
+			for (Map.Entry<Integer, ListenerPathField> entry : FIELDS.entrySet())
+			{
+				field = entry.getValue();
+				if (field.caster == caster && field.degreesPerRay == degreesPerRay && 
+						field.wallSignature == walls.getSignature() && 
+						field.isNear(ears, moveTolerance))
+					return FIELDS.get(entry.getKey());
+			}
+		}
+		
+		// The field is traced outside the lock so that the other fields stay available
+		ListenerPathField field = new ListenerPathField(caster, ears, walls, 
+				SoundGeometry.DEFAULT_CELL_SIZE);
+		synchronized (FIELDS)
+		{
+			FIELDS.put(signature, field);
+			if (FIELDS.size() > MAX_CACHED_FIELDS)
+				FIELDS.remove(FIELDS.keySet().iterator().next());
+		}
+		
+		return field;
+	}
+	
+	/**
+	 * Finds the beams that pass the given source. Each beam reaches the source at most 
+	 * once and only the beams that leave the source inside its fan are accepted.
+	 * 
+	 * @param origin The position the sound originates from (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @return The paths that lead from the source to the ears. The ray indices refer to 
+	 * the beams of the field, not to the source's fan.
+	 */
+	public ArrayList<RayHit> findHits(Point2D.Double origin, double direction, int fanWidth)
+	{
+		ArrayList<RayHit> hits = new ArrayList<RayHit>();
+		int column = (int) Math.floor((origin.getX() - this.minX) / this.cellSize);
+		int row = (int) Math.floor((origin.getY() - this.minY) / this.cellSize);
+		
+		// The sources outside the grid are checked against every segment
+		int[] cell = null;
+		int candidates = this.segmentCount;
+		if (column >= 0 && column < this.columns && row >= 0 && row < this.rows)
+		{
+			cell = this.cells[row * this.columns + column];
+			candidates = cell.length;
+		}
+		
+		// The segments are stored in the order they were traced, so a beam's segments
+		// are next to each other
+		int lastRay = -1, lastEar = -1;
+		for (int i = 0; i < candidates; i++)
+		{
+			int segment = cell == null ? i : cell[i];
+			if (this.rays[segment] == lastRay && this.earIndices[segment] == lastEar)
+				continue;
+			
+			int ear = this.earIndices[segment];
+			double distance = RayCaster.getHitDistance(this.xs[segment], this.ys[segment], 
+					this.dxs[segment], this.dys[segment], this.traveled[segment], 
+					this.spread, origin.getX(), origin.getY(), this.ears.getRadius(ear));
+			if (distance < 0 || distance > this.lengths[segment])
+				continue;
+			
+			// The sound leaves the source in the opposite direction to the beam
+			if (fanWidth < 360 && Math.abs(getAngleDifference(Math.toDegrees( 
+					Math.atan2(this.dys[segment], -this.dxs[segment])), direction)) >
+					fanWidth / 2.0)
+				continue;
+			
+			double total = this.traveled[segment] + distance;
+			if (total > Util.MAX_SOUND_DISTANCE)
+				continue;
+			
+			// The sound arrives at the ear from the direction the beam left the ear in
+			double volumeLost = this.volumesLost[segment];
+			if (this.ears.getSide(ear).isShadowed(Math.cos(Math.toRadians( 
+					this.rays[segment] * this.degreesPerRay))))
+				volumeLost += Ear.HEAD_SHADOW;
+			
+			hits.add(new RayHit(this.rays[segment], ear, total, volumeLost, 
+					this.reflections[segment]));
+			lastRay = this.rays[segment];
+			lastEar = ear;
+		}
+		
+		return hits;
+	}
+	
+	private boolean isNear(EarLayout other, double tolerance)
+	{
+		if (other.size() != this.ears.size())
+			return false;
+		
+		for (int i = 0; i < other.size(); i++)
+		{
+			if (other.getEar(i) != this.ears.getEar(i) || 
+					other.getSide(i) != this.ears.getSide(i) || 
+					other.getRadius(i) != this.ears.getRadius(i) || 
+					Math.hypot(other.getX(i) - this.ears.getX(i), 
+					other.getY(i) - this.ears.getY(i)) > tolerance)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private void traceSegments(int ray, int ear, WallGrid walls)
+	{
+		// The directions grow counter-clockwise while the y-axis points downwards
+		double radians = Math.toRadians(ray * this.degreesPerRay);
+		double x = this.ears.getX(ear);
+		double y = this.ears.getY(ear);
+		double dx = Math.cos(radians);
+		double dy = -Math.sin(radians);
+		double traveled = 0, volumeLost = 0;
+		int lastWall = -1;
+		
+		for (int reflections = 0; reflections <= this.caster.getMaxReflections();
+				reflections++)
+		{
+			// The beam travels straight until it hits a wall
+			double length = Util.MAX_SOUND_DISTANCE - traveled;
+			int wall = walls.findFirstHit(x, y, dx, dy, length, lastWall);
+			if (wall >= 0)
+				length = walls.getWall(wall).getHitDistance(x, y, dx, dy);
+			
+			addSegment(x, y, dx, dy, length, traveled, volumeLost, ray, ear, reflections);
+			
+			if (wall < 0)
+				return;
+			
+			// Reflects the beam from the wall. Some of the sound is absorbed by the wall.
+			SoundWall reflector = walls.getWall(wall);
+			double[] reflected = reflector.reflect(dx, dy);
+			x += dx * length;
+			y += dy * length;
+			dx = reflected[0];
+			dy = reflected[1];
+			traveled += length;
+			volumeLost += reflector.getAbsorption();
+			lastWall = wall;
+		}
+	}
+	
+	private void addSegment(double x, double y, double dx, double dy, double length, 
+			double traveled, double volumeLost, int ray, int ear, int reflections)
+	{
+		if (this.segmentCount == this.xs.length)
+		{
+			int capacity = this.segmentCount * 2;
+			this.xs = Arrays.copyOf(this.xs, capacity);
+			this.ys = Arrays.copyOf(this.ys, capacity);
+			this.dxs = Arrays.copyOf(this.dxs, capacity);
+			this.dys = Arrays.copyOf(this.dys, capacity);
+			this.lengths = Arrays.copyOf(this.lengths, capacity);
+			this.traveled = Arrays.copyOf(this.traveled, capacity);
+			this.volumesLost = Arrays.copyOf(this.volumesLost, capacity);
+			this.rays = Arrays.copyOf(this.rays, capacity);
+			this.earIndices = Arrays.copyOf(this.earIndices, capacity);
+			this.reflections = Arrays.copyOf(this.reflections, capacity);
+		}
+		
+		int index = this.segmentCount ++;
+		this.xs[index] = x;
+		this.ys[index] = y;
+		this.dxs[index] = dx;
+		this.dys[index] = dy;
+		this.lengths[index] = length;
+		this.traveled[index] = traveled;
+		this.volumesLost[index] = (float) volumeLost;
+		this.rays[index] = ray;
+		this.earIndices[index] = ear;
+		this.reflections[index] = reflections;
+	}
+	
+	private double getReach(int segment, double distance)
+	{
+		return this.ears.getRadius(this.earIndices[segment]) + this.spread * 
+				(this.traveled[segment] + distance);
+	}
+	
+	private int[][] createCells()
+	{
+		// The cells are filled in two passes: the first one counts the segments in each
+		// cell and the second one stores them
+		int[] counts = new int[this.columns * this.rows];
+		int[] lastSegment = new int[counts.length];
+		Arrays.fill(lastSegment, -1);
+		for (int i = 0; i < this.segmentCount; i++)
+		{
+			visitCells(i, lastSegment, counts, null);
+		}
+		
+		int[][] cells = new int[counts.length][];
+		for (int i = 0; i < cells.length; i++)
+		{
+			cells[i] = new int[counts[i]];
+		}
+		
+		Arrays.fill(counts, 0);
+		Arrays.fill(lastSegment, -1);
+		for (int i = 0; i < this.segmentCount; i++)
+		{
+			visitCells(i, lastSegment, counts, cells);
+		}
+		
+		return cells;
+	}
+	
+	private void visitCells(int segment, int[] lastSegment, int[] counts, int[][] cells)
+	{
+		// The segment is sampled at every half cell. Each sample covers the cells within
+		// the beam's reach and the distance to the next sample.
+		double step = this.cellSize / 2;
+		int samples = (int) Math.ceil(this.lengths[segment] / step);
+		for (int sample = 0; sample <= samples; sample++)
+		{
+			double distance = Math.min(sample * step, this.lengths[segment]);
+			double x = this.xs[segment] + this.dxs[segment] * distance;
+			double y = this.ys[segment] + this.dys[segment] * distance;
+			double reach = getReach(segment, distance + step) + step;
+			
+			// The parts of the beam outside the grid aren't stored
+			if (x + reach < this.minX || y + reach < this.minY || 
+					x - reach > this.minX + this.columns * this.cellSize || 
+					y - reach > this.minY + this.rows * this.cellSize)
+				continue;
+			
+			int firstColumn = getColumn(x - reach);
+			int lastColumn = getColumn(x + reach);
+			int firstRow = getRow(y - reach);
+			int lastRow = getRow(y + reach);
+			
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				for (int column = firstColumn; column <= lastColumn; column++)
+				{
+					int cell = row * this.columns + column;
+					if (lastSegment[cell] == segment)
+						continue;
+					
+					lastSegment[cell] = segment;
+					if (cells != null)
+						cells[cell][counts[cell]] = segment;
+					counts[cell] ++;
+				}
+			}
+		}
+	}
+	
+	private int getColumn(double x)
+	{
+		return clamp((int) Math.floor((x - this.minX) / this.cellSize), this.columns);
+	}
+	
+	private int getRow(double y)
+	{
+		return clamp((int) Math.floor((y - this.minY) / this.cellSize), this.rows);
+	}
+	
+	private static double[] getBounds(EarLayout ears, WallGrid walls, double margin)
+	{
+		// Returns the area around the walls and the ears as {minX, minY, maxX, maxY}
+		double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 
+				-Double.MAX_VALUE};
+		for (int i = 0; i < walls.size(); i++)
+		{
+			SoundWall wall = walls.getWall(i);
+			include(bounds, wall.getStartX(), wall.getStartY(), margin);
+			include(bounds, wall.getEndX(), wall.getEndY(), margin);
+		}
+		for (int i = 0; i < ears.size(); i++)
+		{
+			include(bounds, ears.getX(i), ears.getY(i), ears.getRadius(i) + margin);
+		}
+		
+		return bounds;
+	}
+	
+	private static void include(double[] bounds, double x, double y, double margin)
+	{
+		bounds[0] = Math.min(bounds[0], x - margin);
+		bounds[1] = Math.min(bounds[1], y - margin);
+		bounds[2] = Math.max(bounds[2], x + margin);
+		bounds[3] = Math.max(bounds[3], y + margin);
+	}
+	
+	private static int clamp(int cell, int cellCount)
+	{
+		return Math.max(0, Math.min(cellCount - 1, cell));
+	}
+	
+	private static double getAngleDifference(double first, double second)
+	{
+		double difference = (first - second) % 360;
+		if (difference < -180)
+			difference += 360;
+		else if (difference >= 180)
+			difference -= 360;
+		
+		return difference;
+	}
+}
@@ -0,0 +1,165 @@
+package darkest_3dSound;
+
+import darkest_utility.Fft;
+
+/**
+ * PartitionedConvolver applies a stereo impulse response to a mono signal one block at a 
+ * time. The response is split into partitions of the block size whose spectra are 
+ * calculated beforehand (uniformly partitioned overlap-add). Partitions that contain no 
+ * taps are skipped entirely, so the cost depends on the length of the response and the 
+ * signal rather than the number of edges in the response.
+ * 
+ * @author Mikko Hilpinen
+ * @since 21.10.2014
+ */
+public class PartitionedConvolver
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final int blockSize, fftSize, partitionCount;
+	private final Fft fft;
+	// [channel][partition][bin], empty partitions are null
+	private final double[][][] responseRe, responseIm;
+	// [partition][bin], works as a ring buffer of the input spectra
+	private final double[][] historyRe, historyIm;
+	// [channel][sample]
+	private final double[][] overlap;
+	private final double[] workRe, workIm;
+	private int historyPosition;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new convolver
+	 * @param response The impulse response that is applied to the signal
+	 * @param blockSize How many samples are processed at once. Must be a power of two.
+	 */
+	public PartitionedConvolver(ImpulseResponse response, int blockSize)
+	{
+		// Initializes attributes
+		this.blockSize = blockSize;
+		this.fftSize = blockSize * 2;
+		this.fft = new Fft(this.fftSize);
+		this.partitionCount = Math.max(1, (response.getLength() + blockSize - 1) / blockSize);
+		this.responseRe = new double[2][this.partitionCount][];
+		this.responseIm = new double[2][this.partitionCount][];
+		this.historyRe = new double[this.partitionCount][this.fftSize];
+		this.historyIm = new double[this.partitionCount][this.fftSize];
+		this.overlap = new double[2][blockSize];
+		this.workRe = new double[this.fftSize];
+		this.workIm = new double[this.fftSize];
+		this.historyPosition = 0;
+		
+		// Calculates the spectra of the non-empty partitions
+		for (int tap = 0; tap < response.getTapCount(); tap++)
+		{
+			int partition = response.getDelay(tap) / blockSize;
+			int offset = response.getDelay(tap) % blockSize;
+			
+			for (int channel = 0; channel < 2; channel++)
+			{
+				if (this.responseRe[channel][partition] == null)
+				{
+					this.responseRe[channel][partition] = new double[this.fftSize];
+					this.responseIm[channel][partition] = new double[this.fftSize];
+				}
+				this.responseRe[channel][partition][offset] += response.getGain(tap, channel);
+			}
+		}
+		
+		for (int channel = 0; channel < 2; channel++)
+		{
+			for (int partition = 0; partition < this.partitionCount; partition++)
+			{
+				if (this.responseRe[channel][partition] != null)
+					this.fft.transform(this.responseRe[channel][partition], 
+							this.responseIm[channel][partition]);
+			}
+		}
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many samples are processed at once
+	 */
+	public int getBlockSize()
+	{
+		return this.blockSize;
+	}
+	
+	/**
+	 * @return How many blocks of silence have to be processed after the signal has ended 
+	 * until the whole response has been played
+	 */
+	public int getTailBlocks()
+	{
+		return this.partitionCount;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Processes a single block of the signal
+	 * @param input The signal
+	 * @param offset The index of the first sample in the block
+	 * @param output The array the processed stereo samples are written into 
+	 * (left, right, left, ...). Must hold at least 2 * blockSize samples.
+	 */
+	public void process(float[] input, int offset, float[] output)
+	{
+		// Transforms the new input block and stores it into the history
+		double[] inputRe = this.historyRe[this.historyPosition];
+		double[] inputIm = this.historyIm[this.historyPosition];
+		for (int i = 0; i < this.fftSize; i++)
+		{
+			int index = offset + i;
+			inputRe[i] = i < this.blockSize && index >= 0 && index < input.length ? 
+					input[index] : 0;
+			inputIm[i] = 0;
+		}
+		this.fft.transform(inputRe, inputIm);
+		
+		for (int channel = 0; channel < 2; channel++)
+		{
+			// Multiplies each partition with the input block it overlaps with
+			for (int i = 0; i < this.fftSize; i++)
+			{
+				this.workRe[i] = 0;
+				this.workIm[i] = 0;
+			}
+			
+			for (int partition = 0; partition < this.partitionCount; partition++)
+			{
+				double[] hRe = this.responseRe[channel][partition];
+				if (hRe == null)
+					continue;
+				double[] hIm = this.responseIm[channel][partition];
+				
+				int history = (this.historyPosition - partition + this.partitionCount) % 
+						this.partitionCount;
+				double[] xRe = this.historyRe[history];
+				double[] xIm = this.historyIm[history];
+				
+				for (int i = 0; i < this.fftSize; i++)
+				{
+					this.workRe[i] += xRe[i] * hRe[i] - xIm[i] * hIm[i];
+					this.workIm[i] += xRe[i] * hIm[i] + xIm[i] * hRe[i];
+				}
+			}
+			
+			// Adds the tail of the previous block to the output and saves the new tail
+			this.fft.inverse(this.workRe, this.workIm);
+			for (int i = 0; i < this.blockSize; i++)
+			{
+				output[2 * i + channel] = (float) (this.workRe[i] + this.overlap[channel][i]);
+				this.overlap[channel][i] = this.workRe[this.blockSize + i];
+			}
+		}
+		
+		this.historyPosition = (this.historyPosition + 1) % this.partitionCount;
+	}
+}
@@ -0,0 +1,122 @@
+package darkest_3dSound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * PcmClip holds the samples of a sound in memory so that they can be mixed freely. The 
+ * samples are stored as a single (mono) channel since the sound originates from a single 
+ * point.
+ * 
+ * @author Mikko Hilpinen
+ * @since 20.10.2014
+ */
+public class PcmClip
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final float[] samples;
+	private final float sampleRate;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new clip from the given samples
+	 * @param samples The samples of the clip [-1, 1]
+	 * @param sampleRate How many samples there are in a second
+	 */
+	public PcmClip(float[] samples, float sampleRate)
+	{
+		// Initializes attributes
+		this.samples = samples;
+		this.sampleRate = sampleRate;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The samples of the clip [-1, 1]. The array shouldn't be modified.
+	 */
+	public float[] getSamples()
+	{
+		return this.samples;
+	}
+	
+	/**
+	 * @return How many samples there are in a second
+	 */
+	public float getSampleRate()
+	{
+		return this.sampleRate;
+	}
+	
+	/**
+	 * @return How many samples long the clip is
+	 */
+	public int getLength()
+	{
+		return this.samples.length;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Loads a clip from a wav file
+	 * @param file The file the clip is read from
+	 * @return The clip that was read from the file
+	 * @throws UnsupportedAudioFileException If the file couldn't be read as audio
+	 * @throws IOException If the file couldn't be read
+	 */
+	public static PcmClip load(File file) throws UnsupportedAudioFileException, IOException
+	{
+		AudioInputStream original = AudioSystem.getAudioInputStream(file);
+		AudioFormat originalFormat = original.getFormat();
+		
+		// Converts the data into 16 bit little endian pcm
+		AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 
+				originalFormat.getSampleRate(), 16, originalFormat.getChannels(), 
+				originalFormat.getChannels() * 2, originalFormat.getSampleRate(), false);
+		AudioInputStream stream = AudioSystem.getAudioInputStream(format, original);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = stream.read(buffer)) > 0)
+			{
+				bytes.write(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+		
+		// Mixes the channels together
+		byte[] data = bytes.toByteArray();
+		int channels = format.getChannels();
+		float[] samples = new float[data.length / format.getFrameSize()];
+		for (int i = 0; i < samples.length; i++)
+		{
+			float sum = 0;
+			for (int channel = 0; channel < channels; channel++)
+			{
+				int index = (i * channels + channel) * 2;
+				sum += (short) ((data[index] & 0xFF) | (data[index + 1] << 8)) / 32768f;
+			}
+			samples[i] = sum / channels;
+		}
+		
+		return new PcmClip(samples, format.getSampleRate());
+	}
+}
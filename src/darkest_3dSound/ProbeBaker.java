@@ -0,0 +1,168 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import omega_world.Area;
+
+/**
+ * ProbeBaker calculates the sound paths of a static level beforehand. Omnidirectional 
+ * sources are placed on a regular grid of probes and the rays that reach the ears from 
+ * each probe are written into a binary file, which can later be read with 
+ * {@link ProbeGrid}. The departure direction of each path is stored as well, so the 
+ * probes also work for sources with narrow fans.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class ProbeBaker
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * The directory the probe files are stored in by default
+	 */
+	public static final String DEFAULT_DIRECTORY = "data/probes";
+	
+	private final RayCaster caster;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new baker
+	 * @param caster The rayCaster that calculates the paths from the probes
+	 */
+	public ProbeBaker(RayCaster caster)
+	{
+		// Initializes attributes
+		this.caster = caster;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * @param name The name of the level
+	 * @return The file the level's probes are stored in by default
+	 */
+	public static File getDefaultFile(String name)
+	{
+		return new File(DEFAULT_DIRECTORY, name + ".probes");
+	}
+	
+	/**
+	 * Bakes the probes for the current ears and walls of an area
+	 * @param area The area whose paths are baked
+	 * @param minX The x-coordinate of the first probe column (in pixels)
+	 * @param minY The y-coordinate of the first probe row (in pixels)
+	 * @param width How wide the baked region is (in pixels)
+	 * @param height How high the baked region is (in pixels)
+	 * @param spacing How far apart the probes are (in pixels)
+	 * @param file The file the probes are written into
+	 * @return How many paths were written
+	 * @throws IOException If the file couldn't be written
+	 */
+	public int bake(Area area, double minX, double minY, double width, double height, 
+			double spacing, File file) throws IOException
+	{
+		return bake(EarLayout.capture(area), SoundGeometry.forArea(area).getGrid(), minX, 
+				minY, width, height, spacing, file);
+	}
+	
+	/**
+	 * Bakes the probes for the given ears and walls
+	 * @param ears The ears the paths lead to
+	 * @param walls The walls that reflect the sound
+	 * @param minX The x-coordinate of the first probe column (in pixels)
+	 * @param minY The y-coordinate of the first probe row (in pixels)
+	 * @param width How wide the baked region is (in pixels)
+	 * @param height How high the baked region is (in pixels)
+	 * @param spacing How far apart the probes are (in pixels)
+	 * @param file The file the probes are written into
+	 * @return How many paths were written
+	 * @throws IOException If the file couldn't be written
+	 */
+	public int bake(EarLayout ears, WallGrid walls, double minX, double minY, double width, 
+			double height, double spacing, File file) throws IOException
+	{
+		if (spacing <= 0)
+			throw new IllegalArgumentException("The probe spacing must be positive");
+		if (ears.size() > 256)
+			throw new IllegalArgumentException("A probe file can't hold over 256 ears");
+		
+		int columns = (int) Math.ceil(width / spacing) + 1;
+		int rows = (int) Math.ceil(height / spacing) + 1;
+		
+		// The probes are cast towards direction 0, so their fans start from -180 degrees
+		double firstAngle = -180;
+		
+		// The paths are calculated before anything is written since the offsets of each
+		// probe are stored first
+		List<List<RayHit>> probes = new ArrayList<List<RayHit>>(columns * rows);
+		for (int row = 0; row < rows; row++)
+		{
+			for (int column = 0; column < columns; column++)
+			{
+				probes.add(this.caster.castHits(new Point2D.Double(minX + column * spacing, 
+						minY + row * spacing), 0, 360, ears, walls));
+			}
+		}
+		
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null && !directory.exists() && !directory.mkdirs())
+			throw new IOException("Couldn't create the directory " + directory);
+		
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream( 
+				new FileOutputStream(file)));
+		int paths = 0;
+		try
+		{
+			output.writeInt(ProbeGrid.MAGIC);
+			output.writeInt(ProbeGrid.VERSION);
+			output.writeInt(31 * ears.getSignature() + walls.getSignature());
+			output.writeInt(ears.size());
+			output.writeFloat((float) minX);
+			output.writeFloat((float) minY);
+			output.writeFloat((float) spacing);
+			output.writeInt(columns);
+			output.writeInt(rows);
+			output.writeFloat((float) this.caster.getDegreesPerRay());
+			
+			// Each probe's paths start at its offset and end at the next probe's offset
+			for (List<RayHit> hits : probes)
+			{
+				output.writeInt(paths);
+				paths += hits.size();
+			}
+			output.writeInt(paths);
+			
+			for (List<RayHit> hits : probes)
+			{
+				for (RayHit hit : hits)
+				{
+					double angle = firstAngle + hit.getRayIndex() * 
+							this.caster.getDegreesPerRay();
+					
+					output.writeFloat((float) hit.getDistance());
+					output.writeByte((int) Math.min(255, hit.getVolumeLost()));
+					output.writeByte(hit.getEarIndex());
+					output.writeShort((int) Math.round(angle * 100));
+					output.writeByte(Math.min(255, hit.getReflections()));
+				}
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		
+		return paths;
+	}
+}
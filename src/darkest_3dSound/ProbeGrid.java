@@ -0,0 +1,416 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import omega_world.Area;
+
+/**
+ * ProbeGrid reads the sound paths baked by {@link ProbeBaker}. The probe file is mapped 
+ * into memory, so loading a level doesn't read the whole file and finding the paths of a 
+ * source only takes a few reads. The paths of the four probes around the source are 
+ * blended together: the paths that lead to the same ear through as many reflections in 
+ * about the same direction are matched between the probes and their distances and 
+ * losses are interpolated into a single edge. Paths that only some of the probes have 
+ * are weakened by how far the source is from those probes. Each area can have its own 
+ * probe grid, which the sound sources use in the 
+ * {@link SoundSource.PropagationMode#BAKED_PROBES} mode.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class ProbeGrid
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * The number every probe file starts with
+	 */
+	public static final int MAGIC = 0x50524f42;
+	/**
+	 * The version of the probe file format
+	 */
+	public static final int VERSION = 2;
+	
+	private static final int HEADER_SIZE = 40;
+	private static final int PATH_SIZE = 9;
+	
+	private static final Map<Area, ProbeGrid> GRIDS = new HashMap<Area, ProbeGrid>();
+	
+	private final ByteBuffer data;
+	private final int layoutSignature, earCount, columns, rows, pathStart;
+	private final double minX, minY, spacing, degreesPerRay;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private ProbeGrid(ByteBuffer data) throws IOException
+	{
+		if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC)
+			throw new IOException("The file is not a probe file");
+		if (data.getInt(4) != VERSION)
+			throw new IOException("Unsupported probe file version " + data.getInt(4));
+		
+		// Initializes attributes
+		this.data = data;
+		this.layoutSignature = data.getInt(8);
+		this.earCount = data.getInt(12);
+		this.minX = data.getFloat(16);
+		this.minY = data.getFloat(20);
+		this.spacing = data.getFloat(24);
+		this.columns = data.getInt(28);
+		this.rows = data.getInt(32);
+		this.degreesPerRay = data.getFloat(36);
+		this.pathStart = HEADER_SIZE + 4 * (this.columns * this.rows + 1);
+		
+		if (data.capacity() < this.pathStart || 
+				data.capacity() < this.pathStart + PATH_SIZE * getOffset(this.columns *
+				this.rows))
+			throw new IOException("The probe file is truncated");
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return A hash of the ears and walls the probes were baked against. The probes 
+	 * shouldn't be used when the signature doesn't match the current layout.
+	 */
+	public int getLayoutSignature()
+	{
+		return this.layoutSignature;
+	}
+	
+	/**
+	 * @return How many ears the probes were baked for
+	 */
+	public int getEarCount()
+	{
+		return this.earCount;
+	}
+	
+	/**
+	 * @return How many probes there are in the grid
+	 */
+	public int size()
+	{
+		return this.columns * this.rows;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Maps a probe file into memory
+	 * @param file The file written by {@link ProbeBaker}
+	 * @return The probes in the file
+	 * @throws IOException If the file couldn't be read or isn't a probe file
+	 */
+	public static ProbeGrid load(File file) throws IOException
+	{
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try
+		{
+			// The mapping stays valid after the channel is closed
+			FileChannel channel = input.getChannel();
+			return new ProbeGrid(channel.map(FileChannel.MapMode.READ_ONLY, 0, 
+					channel.size()));
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+	
+	/**
+	 * Finds the probe grid used in the given area
+	 * @param area The area whose probes are requested
+	 * @return The probe grid of the area. Null if the area doesn't have baked probes.
+	 */
+	public static ProbeGrid forArea(Area area)
+	{
+		synchronized (GRIDS)
+		{
+			return GRIDS.get(area);
+		}
+	}
+	
+	/**
+	 * Changes the probe grid used in the given area
+	 * @param area The area that will use the probes
+	 * @param grid The probes baked for the area. Null if the area shouldn't use probes.
+	 */
+	public static void setForArea(Area area, ProbeGrid grid)
+	{
+		synchronized (GRIDS)
+		{
+			if (grid == null)
+				GRIDS.remove(area);
+			else
+				GRIDS.put(area, grid);
+		}
+	}
+	
+	/**
+	 * Forgets the probe grid of the given area. This should be called when the area is 
+	 * no longer used.
+	 * @param area The area whose probes are removed
+	 */
+	public static void forget(Area area)
+	{
+		setForArea(area, null);
+	}
+	
+	/**
+	 * Creates the edges of a source from the probes around it. The probes only cover the 
+	 * baked region, so the source has to be within the outermost probes.
+	 * @param origin The position of the source (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param ears The ears the probes were baked for
+	 * @return The valid edges from the source to the ears. Null if the source is outside 
+	 * the probes.
+	 */
+	public ArrayList<SoundEdge> createEdges(Point2D.Double origin, double direction, 
+			int fanWidth, int volume, EarLayout ears)
+	{
+		double column = (origin.getX() - this.minX) / this.spacing;
+		double row = (origin.getY() - this.minY) / this.spacing;
+		if (column < 0 || row < 0 || column > this.columns - 1 || row > this.rows - 1)
+			return null;
+		
+		int left = Math.max(0, Math.min((int) column, this.columns - 2));
+		int top = Math.max(0, Math.min((int) row, this.rows - 2));
+		double x = column - left;
+		double y = row - top;
+		
+		List<ProbePath> paths = new ArrayList<ProbePath>();
+		double availableWeight = 0;
+		availableWeight += addPaths(left, top, 0, (1 - x) * (1 - y), direction, fanWidth, 
+				ears, paths);
+		availableWeight += addPaths(left + 1, top, 1, x * (1 - y), direction, fanWidth, 
+				ears, paths);
+		availableWeight += addPaths(left, top + 1, 2, (1 - x) * y, direction, fanWidth, 
+				ears, paths);
+		availableWeight += addPaths(left + 1, top + 1, 3, x * y, direction, fanWidth, 
+				ears, paths);
+		
+		// The matching paths are next to each other once the paths are sorted by ear,
+		// reflections and angle
+		Collections.sort(paths);
+		ArrayList<SoundEdge> edges = new ArrayList<SoundEdge>();
+		int first = 0;
+		for (int i = 1; i <= paths.size(); i++)
+		{
+			if (i == paths.size() || !paths.get(i).hasSameRoute(paths.get(first)))
+			{
+				addBlendedEdges(paths.subList(first, i), availableWeight, volume, ears, 
+						edges);
+				first = i;
+			}
+		}
+		
+		return edges;
+	}
+	
+	private void addBlendedEdges(List<ProbePath> paths, double availableWeight, 
+			int volume, EarLayout ears, List<SoundEdge> edges)
+	{
+		// The angles wrap around at 180 degrees, so a path that crosses it is split 
+		// between the first and the last run
+		int wrapped = 0;
+		ProbePath last = paths.get(paths.size() - 1);
+		if (paths.get(0).matches(last, getMatchTolerance(last)))
+		{
+			wrapped = 1;
+			while (wrapped < paths.size() && paths.get(wrapped).matches(
+					paths.get(wrapped - 1), getMatchTolerance(paths.get(wrapped - 1))))
+			{
+				wrapped ++;
+			}
+			if (wrapped == paths.size())
+				wrapped = 0;
+		}
+		
+		int first = wrapped;
+		for (int i = wrapped + 1; i <= paths.size(); i++)
+		{
+			if (i == paths.size() || !paths.get(i).matches(paths.get(i - 1), 
+					getMatchTolerance(paths.get(i - 1))))
+			{
+				List<ProbePath> run = paths.subList(first, i);
+				if (i == paths.size() && wrapped > 0)
+				{
+					run = new ArrayList<ProbePath>(run);
+					run.addAll(paths.subList(0, wrapped));
+				}
+				
+				addBlendedEdge(run, availableWeight, volume, ears, edges);
+				first = i;
+			}
+		}
+	}
+	
+	private double addPaths(int column, int row, int corner, double weight, 
+			double direction, int fanWidth, EarLayout ears, List<ProbePath> paths)
+	{
+		// Grids with a single column or row only have the first probes
+		if (column < 0 || row < 0 || column >= this.columns || row >= this.rows)
+			return 0;
+		if (weight <= 0.01)
+			return weight;
+		
+		double maxDifference = fanWidth / 2.0 + this.degreesPerRay / 2;
+		
+		int probe = row * this.columns + column;
+		int end = getOffset(probe + 1);
+		for (int path = getOffset(probe); path < end; path++)
+		{
+			int position = this.pathStart + path * PATH_SIZE;
+			int ear = this.data.get(position + 5) & 0xFF;
+			if (ear >= ears.size())
+				continue;
+			
+			double angle = this.data.getShort(position + 6) / 100.0;
+			if (fanWidth < 360 && Math.abs(getAngleDifference(angle, direction)) > 
+					maxDifference)
+				continue;
+			
+			int reflections = this.data.get(position + 8) & 0xFF;
+			int volumeLost = this.data.get(position + 4) & 0xFF;
+			paths.add(new ProbePath(corner, weight, ear, reflections, angle, 
+					this.data.getFloat(position), volumeLost));
+		}
+		
+		return weight;
+	}
+	
+	private double getMatchTolerance(ProbePath path)
+	{
+		// Moving the source from one probe to the next turns the path by about the
+		// probe spacing divided by the path's length
+		return 2 * this.degreesPerRay + Math.toDegrees(1.5 * this.spacing / 
+				Math.max(this.spacing, path.distance));
+	}
+	
+	private static void addBlendedEdge(List<ProbePath> paths, double availableWeight, 
+			int volume, EarLayout ears, List<SoundEdge> edges)
+	{
+		// A probe may have several rays on the same path, which are averaged first
+		double[] weights = new double[4];
+		double[] distances = new double[4];
+		double[] losses = new double[4];
+		int[] counts = new int[4];
+		for (ProbePath path : paths)
+		{
+			weights[path.corner] = path.weight;
+			distances[path.corner] += path.distance;
+			losses[path.corner] += path.volumeLost;
+			counts[path.corner] ++;
+		}
+		
+		double totalWeight = 0, distance = 0, volumeLost = 0;
+		for (int corner = 0; corner < 4; corner++)
+		{
+			if (counts[corner] == 0)
+				continue;
+			
+			totalWeight += weights[corner];
+			distance += weights[corner] * distances[corner] / counts[corner];
+			volumeLost += weights[corner] * losses[corner] / counts[corner];
+		}
+		
+		// The paths the other probes don't have fade out towards those probes. The weight
+		// is applied to the sound energy.
+		int weightLoss = (int) Math.round(-10 * Math.log10(Math.min(1, 
+				totalWeight / availableWeight)));
+		int ear = paths.get(0).ear;
+		SoundEdge edge = SoundEdge.obtain(volume, 
+				(int) Math.round(volumeLost / totalWeight) + weightLoss, 
+				distance / totalWeight, ears.getEar(ear), ears.getSide(ear));
+		if (edge.isValid())
+			edges.add(edge);
+		else
+			edge.release();
+	}
+	
+	private int getOffset(int probe)
+	{
+		return this.data.getInt(HEADER_SIZE + 4 * probe);
+	}
+	
+	private static double getAngleDifference(double first, double second)
+	{
+		double difference = (first - second) % 360;
+		if (difference < -180)
+			difference += 360;
+		else if (difference >= 180)
+			difference -= 360;
+		
+		return difference;
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private static class ProbePath implements Comparable<ProbePath>
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private final int corner, ear, reflections;
+		private final double weight, angle, distance, volumeLost;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public ProbePath(int corner, double weight, int ear, int reflections, 
+				double angle, double distance, double volumeLost)
+		{
+			// Initializes attributes
+			this.corner = corner;
+			this.weight = weight;
+			this.ear = ear;
+			this.reflections = reflections;
+			this.angle = angle;
+			this.distance = distance;
+			this.volumeLost = volumeLost;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public int compareTo(ProbePath other)
+		{
+			if (this.ear != other.ear)
+				return this.ear - other.ear;
+			if (this.reflections != other.reflections)
+				return this.reflections - other.reflections;
+			return Double.compare(this.angle, other.angle);
+		}
+		
+		
+		// OTHER METHODS	------------------------------
+		
+		public boolean hasSameRoute(ProbePath other)
+		{
+			return this.ear == other.ear && this.reflections == other.reflections;
+		}
+		
+		public boolean matches(ProbePath previous, double tolerance)
+		{
+			return hasSameRoute(previous) && 
+					Math.abs(getAngleDifference(this.angle, previous.angle)) <= tolerance;
+		}
+	}
+}
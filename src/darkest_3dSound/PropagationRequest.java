@@ -0,0 +1,312 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+
+import darkest_3dSound.SoundMetrics.Metric;
+
+/**
+ * PropagationRequest holds all the information that is needed for calculating the edges of 
+ * a sound source. The requests are immutable so that the edges can be calculated on any 
+ * thread while the source keeps moving.
+ * 
+ * @author Mikko Hilpinen
+ * @since 22.10.2014
+ */
+public class PropagationRequest
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final Point2D.Double origin;
+	private final double direction;
+	private final int fanWidth, volume;
+	private final EarLayout ears;
+	private final WallGrid walls;
+	private final LevelOfDetail levelOfDetail;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new request
+	 * 
+	 * @param origin The position the sound originates from (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param ears The ears the sound is trying to reach
+	 * @param walls The walls that reflect the sound
+	 */
+	public PropagationRequest(Point2D.Double origin, double direction, int fanWidth, 
+			int volume, EarLayout ears, WallGrid walls)
+	{
+		this(origin, direction, fanWidth, volume, ears, walls, null);
+	}
+	
+	/**
+	 * Creates a new request
+	 * 
+	 * @param origin The position the sound originates from (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param ears The ears the sound is trying to reach
+	 * @param walls The walls that reflect the sound
+	 * @param levelOfDetail Decides how much work is spent on the edges. Null if the edges 
+	 * should always be fully calculated.
+	 */
+	public PropagationRequest(Point2D.Double origin, double direction, int fanWidth, 
+			int volume, EarLayout ears, WallGrid walls, LevelOfDetail levelOfDetail)
+	{
+		// Initializes attributes
+		this.origin = new Point2D.Double(origin.getX(), origin.getY());
+		this.direction = direction;
+		this.fanWidth = fanWidth;
+		this.volume = volume;
+		this.ears = ears;
+		this.walls = walls;
+		this.levelOfDetail = levelOfDetail;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The position the sound originates from (in pixels)
+	 */
+	public Point2D.Double getOrigin()
+	{
+		return new Point2D.Double(this.origin.getX(), this.origin.getY());
+	}
+	
+	/**
+	 * @return The direction the source is facing
+	 */
+	public double getDirection()
+	{
+		return this.direction;
+	}
+	
+	/**
+	 * @return How wide the source's fan is (in degrees)
+	 */
+	public int getFanWidth()
+	{
+		return this.fanWidth;
+	}
+	
+	/**
+	 * @return How loud the sound is at the source (in desibels)
+	 */
+	public int getVolume()
+	{
+		return this.volume;
+	}
+	
+	/**
+	 * @return The ears the sound is trying to reach
+	 */
+	public EarLayout getEars()
+	{
+		return this.ears;
+	}
+	
+	/**
+	 * @return The walls that reflect the sound
+	 */
+	public WallGrid getWalls()
+	{
+		return this.walls;
+	}
+	
+	/**
+	 * @return A hash of the ears and walls the edges are calculated against. The edges 
+	 * have to be recalculated when the signature changes.
+	 */
+	public int getLayoutSignature()
+	{
+		return 31 * this.ears.getSignature() + this.walls.getSignature();
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Calculates the edges for the request. Previously calculated edges are reused when 
+	 * possible. If the source has moved only slightly since the previous snapshot, the 
+	 * previous edges are updated instead of being recalculated.
+	 * @param caster The rayCaster that calculates new edges
+	 * @param cache The cache that holds the previously calculated edges
+	 * @param previous The previous snapshot calculated for the same source. Null if there 
+	 * is no such snapshot.
+	 * @return A snapshot of the edges. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot solve(RayCaster caster, EdgeCache cache, EdgeSnapshot previous)
+	{
+		// Sources that are far away or can't be heard aren't traced
+		EdgeSnapshot reduced = solveWithLessDetail();
+		if (reduced != null)
+			return reduced;
+		
+		return castEdges(caster, cache, previous);
+	}
+	
+	/**
+	 * Calculates the edges for the request by blending the baked probes around the 
+	 * source. The rays are cast instead (see 
+	 * {@link #solve(RayCaster, EdgeCache, EdgeSnapshot)}) if there are no probes, if the 
+	 * probes were baked against different ears or walls or if the source is outside the 
+	 * probes. The level of detail is decided only once either way.
+	 * @param probes The probes baked for the area. May be null.
+	 * @param caster The rayCaster that calculates the edges if the probes can't be used
+	 * @param cache The cache that holds the previously calculated edges
+	 * @param previous The previous snapshot calculated for the same source. Null if there 
+	 * is no such snapshot.
+	 * @return A snapshot of the edges. The edges contain no duplicates. The snapshots 
+	 * blended from the probes don't contain any ray hits, so they can't be updated 
+	 * incrementally.
+	 */
+	public EdgeSnapshot solve(ProbeGrid probes, RayCaster caster, EdgeCache cache, 
+			EdgeSnapshot previous)
+	{
+		// Sources that are far away or can't be heard aren't traced
+		EdgeSnapshot reduced = solveWithLessDetail();
+		if (reduced != null)
+			return reduced;
+		
+		EdgeSnapshot blended = blendProbes(probes);
+		if (blended != null)
+			return blended;
+		
+		return castEdges(caster, cache, previous);
+	}
+	
+	/**
+	 * Calculates the edges for the request by looking them up from a listener field. The 
+	 * field should be traced against the request's walls and ears, or against the ears' 
+	 * nearby positions (see {@link ListenerPathField#getMoveTolerance()}). The snapshot 
+	 * doesn't contain any ray hits, so it can't be updated incrementally.
+	 * @param field The field that holds the paths from the ears
+	 * @return A snapshot of the edges. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot solve(ListenerPathField field)
+	{
+		// Sources that are far away or can't be heard aren't traced
+		EdgeSnapshot reduced = solveWithLessDetail();
+		if (reduced != null)
+			return reduced;
+		
+		return lookUpEdges(field);
+	}
+	
+	/**
+	 * Calculates the edges for the request by looking them up from the listener field of 
+	 * the request's ears and walls (see 
+	 * {@link ListenerPathField#forLayout(RayCaster, EarLayout, WallGrid)}). The field is 
+	 * only found or traced if the request needs the full detail, so the sources that 
+	 * are far away or can't be heard never cause a field to be traced.
+	 * @param caster The rayCaster whose beams the field imitates
+	 * @return A snapshot of the edges. The edges contain no duplicates.
+	 */
+	public EdgeSnapshot solveWithListenerField(RayCaster caster)
+	{
+		EdgeSnapshot reduced = solveWithLessDetail();
+		if (reduced != null)
+			return reduced;
+		
+		return lookUpEdges(ListenerPathField.forLayout(caster, this.ears, this.walls));
+	}
+	
+	private EdgeSnapshot castEdges(RayCaster caster, EdgeCache cache, 
+			EdgeSnapshot previous)
+	{
+		EdgeSnapshot snapshot = cache.get(this.origin, this.direction, this.fanWidth, 
+				this.volume, getLayoutSignature());
+		if (snapshot != null)
+			return snapshot;
+		
+		ArrayList<RayHit> hits;
+		Point2D.Double castOrigin = this.origin;
+		if (caster.canUpdate(previous, this.origin, this.direction, this.fanWidth, 
+				getLayoutSignature(), this.walls))
+		{
+			hits = caster.updateHits(previous, this.origin, this.ears, this.walls);
+			castOrigin = previous.getCastOrigin();
+		}
+		else
+			hits = caster.castHits(this.origin, this.direction, this.fanWidth, this.ears, 
+					this.walls);
+		
+		ArrayList<SoundEdge> edges = caster.createEdges(hits, this.volume, this.ears);
+		ArrayList<SoundEdge> merged = SoundEdge.mergeDuplicates(edges);
+		SoundMetrics.record(Metric.EDGES_PRODUCED, merged.size());
+		SoundMetrics.record(Metric.DUPLICATES_MERGED, edges.size() - merged.size());
+		
+		snapshot = new EdgeSnapshot(merged, hits, this.origin, castOrigin, this.direction, 
+				this.fanWidth, getLayoutSignature());
+		cache.put(this.origin, this.direction, this.fanWidth, this.volume, 
+				getLayoutSignature(), snapshot);
+		
+		return snapshot;
+	}
+	
+	private EdgeSnapshot blendProbes(ProbeGrid probes)
+	{
+		if (probes == null || probes.getLayoutSignature() != getLayoutSignature())
+			return null;
+		
+		ArrayList<SoundEdge> edges = probes.createEdges(this.origin, this.direction, 
+				this.fanWidth, this.volume, this.ears);
+		if (edges == null)
+			return null;
+		
+		ArrayList<SoundEdge> merged = SoundEdge.mergeDuplicates(edges);
+		SoundMetrics.record(Metric.EDGES_PRODUCED, merged.size());
+		SoundMetrics.record(Metric.DUPLICATES_MERGED, edges.size() - merged.size());
+		
+		return new EdgeSnapshot(merged, null, this.origin, this.direction, this.fanWidth, 
+				getLayoutSignature());
+	}
+	
+	private EdgeSnapshot lookUpEdges(ListenerPathField field)
+	{
+		ArrayList<RayHit> hits = field.findHits(this.origin, this.direction, this.fanWidth);
+		ArrayList<SoundEdge> edges = field.getCaster().createEdges(hits, this.volume, 
+				field.getEars());
+		ArrayList<SoundEdge> merged = SoundEdge.mergeDuplicates(edges);
+		SoundMetrics.record(Metric.EDGES_PRODUCED, merged.size());
+		SoundMetrics.record(Metric.DUPLICATES_MERGED, edges.size() - merged.size());
+		
+		return new EdgeSnapshot(merged, null, this.origin, this.direction, this.fanWidth, 
+				getLayoutSignature());
+	}
+	
+	private EdgeSnapshot solveWithLessDetail()
+	{
+		if (this.levelOfDetail == null)
+			return null;
+		
+		LevelOfDetail.Tier tier = this.levelOfDetail.getTier(this);
+		if (tier == LevelOfDetail.Tier.FULL)
+		{
+			SoundMetrics.record(Metric.SOURCES_FULL, 1);
+			return null;
+		}
+		
+		ArrayList<SoundEdge> edges;
+		if (tier == LevelOfDetail.Tier.CULLED)
+		{
+			SoundMetrics.record(Metric.SOURCES_CULLED, 1);
+			edges = new ArrayList<SoundEdge>();
+		}
+		else
+		{
+			SoundMetrics.record(Metric.SOURCES_DIRECT, 1);
+			edges = LevelOfDetail.createDirectEdges(this);
+			SoundMetrics.record(Metric.EDGES_PRODUCED, edges.size());
+		}
+		
+		return new EdgeSnapshot(edges, null, this.origin, this.direction, this.fanWidth, 
+				getLayoutSignature());
+	}
+}
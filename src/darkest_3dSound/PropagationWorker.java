@@ -0,0 +1,116 @@
+package darkest_3dSound;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * PropagationWorker calculates the edges of sound sources in background threads so that 
+ * the game thread never has to wait for the calculation. The results are published into 
+ * the sources' edge snapshot buffers.
+ * 
+ * @author Mikko Hilpinen
+ * @since 22.10.2014
+ */
+public class PropagationWorker
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final ExecutorService executor;
+	private final RayCaster caster;
+	private final EdgeCache cache;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new worker
+	 * 
+	 * @param threads How many threads are used for calculating the edges
+	 * @param caster The rayCaster that calculates the edges
+	 * @param cache The cache that holds the previously calculated edges
+	 */
+	public PropagationWorker(int threads, RayCaster caster, EdgeCache cache)
+	{
+		// Initializes attributes
+		this.caster = caster;
+		this.cache = cache;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Sound propagation");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Requests new edges to be calculated in the background. If the target already has a 
+	 * request waiting, the old request is replaced.
+	 * @param request The request that should be calculated
+	 * @param target The buffer the results are published into
+	 */
+	public void submit(PropagationRequest request, EdgeSnapshotBuffer target)
+	{
+		// Only one job is running per target at a time
+		if (!target.offer(request))
+			this.executor.execute(new PropagationJob(target));
+	}
+	
+	/**
+	 * Stops the worker. The requests that haven't been calculated are discarded.
+	 */
+	public void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private class PropagationJob implements Runnable
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private EdgeSnapshotBuffer target;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public PropagationJob(EdgeSnapshotBuffer target)
+		{
+			this.target = target;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public void run()
+		{
+			// Keeps calculating until the newest request has been published
+			PropagationRequest request;
+			do
+			{
+				request = this.target.peek();
+				try
+				{
+					this.target.publish(request.solve(PropagationWorker.this.caster, 
+							PropagationWorker.this.cache, this.target.getFront()));
+				}
+				catch (RuntimeException e)
+				{
+					System.err.println("Failed to calculate sound edges");
+					e.printStackTrace();
+				}
+			}
+			while (!this.target.complete(request));
+		}
+	}
+}
@@ -0,0 +1,613 @@
+package darkest_3dSound;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import darkest_3dSound.SoundMetrics.Metric;
+import darkest_utility.Util;
+
+/**
+ * RayCaster calculates the SoundEdges of a sound source analytically. Instead of moving 
+ * SoundParticles around, each particle is represented by a beam whose width grows with the 
+ * distance traveled, and the point where the beam first touches an ear is solved directly. 
+ * The beams that overlap an ear can be split recursively into narrower beams, which 
+ * gives more accurate edges without casting dense rays in every direction. The beams are 
+ * reflected from the sound walls, which absorb some of the sound on each reflection. Wide 
+ * fans are split into chunks of rays that are cast in parallel.
+ * 
+ * @author Mikko Hilpinen
+ * @since 18.10.2014
+ */
+public class RayCaster
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private double degreesPerRay, spread, maxIncrementalMove;
+	private int maxDepth, maxReflections, sequentialThreshold;
+	private boolean parallel;
+	private ForkJoinPool pool;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new rayCaster that doesn't split the rays
+	 * @param degreesPerRay How many degrees each ray covers. Works like 
+	 * SoundSource.degreesForParticle. (0, 90)
+	 */
+	public RayCaster(double degreesPerRay)
+	{
+		this(degreesPerRay, 0);
+	}
+	
+	/**
+	 * Creates a new rayCaster
+	 * @param degreesPerRay How many degrees each ray covers before it is split. (0, 90)
+	 * @param maxDepth How many times a ray that overlaps an ear can be split in half
+	 */
+	public RayCaster(double degreesPerRay, int maxDepth)
+	{
+		// Initializes attributes
+		this.degreesPerRay = degreesPerRay;
+		this.spread = getSpread(degreesPerRay);
+		this.maxIncrementalMove = 100;
+		this.maxDepth = maxDepth;
+		this.maxReflections = 3;
+		this.sequentialThreshold = 8;
+		this.parallel = true;
+		this.pool = null;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many degrees each ray covers
+	 */
+	public double getDegreesPerRay()
+	{
+		return this.degreesPerRay;
+	}
+	
+	/**
+	 * @return How many times a ray that overlaps an ear can be split in half
+	 */
+	public int getMaxDepth()
+	{
+		return this.maxDepth;
+	}
+	
+	/**
+	 * Changes how many times a ray that overlaps an ear can be split in half. Each level 
+	 * halves the width of the narrowest rays.
+	 * @param maxDepth The new maximum depth. 0 disables the splitting.
+	 */
+	public void setMaxDepth(int maxDepth)
+	{
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * @return How many times a ray can be reflected from the walls
+	 */
+	public int getMaxReflections()
+	{
+		return this.maxReflections;
+	}
+	
+	/**
+	 * Changes how many times a ray can be reflected from the walls
+	 * @param maxReflections The new maximum number of reflections. 0 makes the walls only 
+	 * block the sound.
+	 */
+	public void setMaxReflections(int maxReflections)
+	{
+		this.maxReflections = maxReflections;
+	}
+	
+	/**
+	 * @return How far (in pixels) a source may move before its edges are fully recalculated 
+	 * instead of being updated
+	 */
+	public double getMaxIncrementalMove()
+	{
+		return this.maxIncrementalMove;
+	}
+	
+	/**
+	 * Changes how far a source may move before its edges are fully recalculated instead of 
+	 * being updated
+	 * @param pixels The new maximum movement in pixels. 0 disables the updates.
+	 */
+	public void setMaxIncrementalMove(double pixels)
+	{
+		this.maxIncrementalMove = pixels;
+	}
+	
+	
+	/**
+	 * @return Are wide fans cast in parallel
+	 */
+	public boolean isParallel()
+	{
+		return this.parallel;
+	}
+	
+	/**
+	 * Changes whether wide fans are cast in parallel
+	 * @param parallel Should the fans wider than the sequential threshold be split between 
+	 * multiple threads
+	 */
+	public void setParallel(boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * @return How many rays are cast in a single thread at most. Fans with fewer rays are 
+	 * always cast sequentially.
+	 */
+	public int getSequentialThreshold()
+	{
+		return this.sequentialThreshold;
+	}
+	
+	/**
+	 * Changes how many rays are cast in a single thread at most
+	 * @param rays The new amount of rays. Fans with fewer rays are always cast 
+	 * sequentially. [1, ...]
+	 */
+	public void setSequentialThreshold(int rays)
+	{
+		this.sequentialThreshold = Math.max(1, rays);
+	}
+	
+	/**
+	 * Changes the pool the rays are cast in. Sharing a pool between casters keeps the 
+	 * amount of threads in check.
+	 * @param pool The pool that runs the parallel casts
+	 */
+	public void setPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+	
+	/**
+	 * @return The pool the rays are cast in. A new pool with a thread for each processor is 
+	 * created if no pool has been set.
+	 */
+	public synchronized ForkJoinPool getPool()
+	{
+		if (this.pool == null)
+			this.pool = new ForkJoinPool();
+		
+		return this.pool;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Casts rays over a sound source's fan and collects the edges that lead to an ear
+	 * 
+	 * @param origin The position the sound originates from (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param ears The ears the sound is trying to reach
+	 * @param walls The walls that reflect the sound
+	 * @return The valid edges that lead from the source to the ears
+	 */
+	public ArrayList<SoundEdge> castEdges(Point2D.Double origin, double direction, 
+			int fanWidth, int volume, EarLayout ears, WallGrid walls)
+	{
+		return createEdges(castHits(origin, direction, fanWidth, ears, walls), volume, ears);
+	}
+	
+	/**
+	 * Casts rays over a sound source's fan and collects each ray that reaches an ear. The 
+	 * hits are returned in the same order regardless of whether the fan was cast in 
+	 * parallel or not.
+	 * 
+	 * @param origin The position the sound originates from (in pixels)
+	 * @param direction The direction the source is facing
+	 * @param fanWidth How wide the source's fan is (in degrees)
+	 * @param ears The ears the sound is trying to reach
+	 * @param walls The walls that reflect the sound
+	 * @return The rays that reached an ear
+	 */
+	public ArrayList<RayHit> castHits(Point2D.Double origin, double direction, int fanWidth, 
+			EarLayout ears, WallGrid walls)
+	{
+		double firstAngle = getFirstAngle(direction, fanWidth);
+		int rays = getRayCount(fanWidth);
+		SoundMetrics.record(Metric.RAYS_CAST, rays);
+		
+		// Small fans are faster to cast in the calling thread
+		if (!this.parallel || rays <= this.sequentialThreshold || ears.size() == 0)
+			return castRange(origin, firstAngle, 0, rays, ears, walls);
+		
+		return getPool().invoke(new CastTask(origin, firstAngle, 0, rays, ears, walls));
+	}
+	
+	/**
+	 * Checks whether the edges in the previous snapshot can be updated for the new source 
+	 * state instead of being fully recalculated. Without walls, the updates can be chained 
+	 * since the update finds every new path. With walls, a reflected path may also appear 
+	 * away from the previous paths, so the rays are fully cast again once the source has 
+	 * moved the maximum incremental move from where they were last cast.
+	 * 
+	 * @param previous The previously calculated snapshot
+	 * @param origin The new position of the source (in pixels)
+	 * @param direction The new direction of the source
+	 * @param fanWidth The new width of the source's fan
+	 * @param layoutSignature The signature of the current ears and walls
+	 * @param walls The current walls
+	 * @return Can the snapshot's hits be updated with {@link #updateHits(EdgeSnapshot, 
+	 * java.awt.geom.Point2D.Double, EarLayout)}
+	 */
+	public boolean canUpdate(EdgeSnapshot previous, Point2D.Double origin, double direction, 
+			int fanWidth, int layoutSignature, WallGrid walls)
+	{
+		if (previous == null || previous.getHits() == null || 
+				previous.getDirection() != direction || previous.getFanWidth() != fanWidth || 
+				previous.getLayoutSignature() != layoutSignature)
+			return false;
+		
+		Point2D.Double anchor = walls.isEmpty() ? previous.getOrigin() : 
+				previous.getCastOrigin();
+		return anchor.distance(origin) <= this.maxIncrementalMove;
+	}
+	
+	/**
+	 * Updates the hits of a previous snapshot after the source has moved. The previous hits 
+	 * are traced again, including their reflections, and the other rays are only traced if 
+	 * they may have started to reach an ear: the rays pointing towards an ear and the 
+	 * rays next to a previously reflected path. Use {@link #canUpdate(EdgeSnapshot, 
+	 * java.awt.geom.Point2D.Double, double, int, int, WallGrid)} to check whether the 
+	 * update is possible.
+	 * 
+	 * @param previous The previously calculated snapshot
+	 * @param origin The new position of the source (in pixels)
+	 * @param ears The current ear layout
+	 * @param walls The current walls
+	 * @return The rays that reach an ear from the new position
+	 */
+	public ArrayList<RayHit> updateHits(EdgeSnapshot previous, Point2D.Double origin, 
+			EarLayout ears, WallGrid walls)
+	{
+		ArrayList<RayHit> hits = new ArrayList<RayHit>();
+		double firstAngle = getFirstAngle(previous.getDirection(), previous.getFanWidth());
+		int rays = getRayCount(previous.getFanWidth());
+		boolean[] traced = new boolean[rays * ears.size()];
+		
+		// Re-evaluates the old paths. The paths that don't reach the ear anymore are dropped
+		for (RayHit hit : previous.getHits())
+		{
+			traced[hit.getRayIndex() * ears.size() + hit.getEarIndex()] = true;
+			castRay(origin, firstAngle, hit.getRayIndex(), hit.getEarIndex(), ears, walls, 
+					hits);
+		}
+		
+		// A reflected path turns by at most the angle the movement covers at the path's
+		// length, so the rays within that angle from the previous path are traced
+		double move = previous.getOrigin().distance(origin);
+		for (RayHit hit : previous.getHits())
+		{
+			if (hit.getReflections() == 0)
+				continue;
+			
+			double turn = Math.toDegrees(Math.asin(Math.min(1, move / 
+					Math.max(1, hit.getDistance() - move))));
+			int window = 1 + (int) Math.ceil(turn / this.degreesPerRay);
+			for (int ray = hit.getRayIndex() - window; ray <= hit.getRayIndex() + window; 
+					ray++)
+			{
+				int index = ray * ears.size() + hit.getEarIndex();
+				if (ray < 0 || ray >= rays || traced[index])
+					continue;
+				
+				traced[index] = true;
+				castRay(origin, firstAngle, ray, hit.getEarIndex(), ears, walls, hits);
+			}
+		}
+		
+		// Traces the rays that are close enough to an ear to possibly reach it now
+		for (int ear = 0; ear < ears.size(); ear++)
+		{
+			double dx = ears.getX(ear) - origin.getX();
+			double dy = ears.getY(ear) - origin.getY();
+			double distance = Math.sqrt(dx * dx + dy * dy);
+			double earAngle = Math.toDegrees(Math.atan2(-dy, dx));
+			double window = this.degreesPerRay + Math.toDegrees(Math.asin( 
+					Math.min(1, this.spread)) + Math.asin(Math.min(1, 
+					ears.getRadius(ear) / Math.max(distance, 1))));
+			
+			for (int ray = 0; ray < rays; ray++)
+			{
+				if (traced[ray * ears.size() + ear])
+					continue;
+				
+				double difference = Math.abs(getAngleDifference(firstAngle + 
+						ray * this.degreesPerRay, earAngle));
+				if (difference <= window)
+					castRay(origin, firstAngle, ray, ear, ears, walls, hits);
+			}
+		}
+		
+		return hits;
+	}
+	
+	/**
+	 * Creates the edges that correspond to the given hits
+	 * @param hits The rays that reached an ear
+	 * @param volume How loud the sound is at the source (in desibels)
+	 * @param ears The ear layout the rays were cast against
+	 * @return The valid edges that lead from the source to the ears
+	 */
+	public ArrayList<SoundEdge> createEdges(List<RayHit> hits, int volume, EarLayout ears)
+	{
+		ArrayList<SoundEdge> edges = new ArrayList<SoundEdge>(hits.size());
+		for (RayHit hit : hits)
+		{
+			SoundEdge edge = SoundEdge.obtain(volume, (int) hit.getVolumeLost(), 
+					hit.getDistance(), ears.getEar(hit.getEarIndex()), 
+					ears.getSide(hit.getEarIndex()));
+			if (edge.isValid())
+				edges.add(edge);
+			else
+				edge.release();
+		}
+		
+		return edges;
+	}
+	
+	private ArrayList<RayHit> castRange(Point2D.Double origin, double firstAngle, 
+			int firstRay, int lastRay, EarLayout ears, WallGrid walls)
+	{
+		ArrayList<RayHit> hits = new ArrayList<RayHit>();
+		for (int ray = firstRay; ray < lastRay; ray++)
+		{
+			for (int ear = 0; ear < ears.size(); ear++)
+			{
+				castRay(origin, firstAngle, ray, ear, ears, walls, hits);
+			}
+		}
+		
+		return hits;
+	}
+	
+	private void castRay(Point2D.Double origin, double firstAngle, int ray, int ear, 
+			EarLayout ears, WallGrid walls, List<RayHit> hits)
+	{
+		// Finds the direction and size of the ear when seen from the origin
+		double dx = ears.getX(ear) - origin.getX();
+		double dy = ears.getY(ear) - origin.getY();
+		double earDistance = Math.sqrt(dx * dx + dy * dy);
+		double earAngle = Math.toDegrees(Math.atan2(-dy, dx));
+		double earHalfWidth = 180;
+		if (earDistance > ears.getRadius(ear))
+			earHalfWidth = Math.toDegrees(Math.asin(ears.getRadius(ear) / earDistance));
+		
+		RayHit hit = traceBeam(origin, firstAngle + ray * this.degreesPerRay, 
+				this.degreesPerRay / 2, 0, ray, ear, ears, walls, earAngle, earHalfWidth);
+		
+		if (hit != null && hit.getDistance() <= Util.MAX_SOUND_DISTANCE)
+			hits.add(hit);
+	}
+	
+	private RayHit traceBeam(Point2D.Double origin, double angle, double halfWidth, 
+			int depth, int ray, int ear, EarLayout ears, WallGrid walls, double earAngle, 
+			double earHalfWidth)
+	{
+		// Beams that don't overlap the ear can only reach it by reflecting from the walls
+		double beamHalfWidth = Math.toDegrees(Math.asin(Math.min(1, 
+				Math.tan(Math.toRadians(halfWidth)))));
+		boolean overlaps = Math.abs(getAngleDifference(angle, earAngle)) <= 
+				beamHalfWidth + earHalfWidth;
+		if (!overlaps && walls.isEmpty())
+			return null;
+		
+		// Overlapping beams are split until the maximum depth is reached
+		if (overlaps && depth < this.maxDepth)
+		{
+			RayHit first = traceBeam(origin, angle - halfWidth / 2, halfWidth / 2, 
+					depth + 1, ray, ear, ears, walls, earAngle, earHalfWidth);
+			RayHit second = traceBeam(origin, angle + halfWidth / 2, halfWidth / 2, 
+					depth + 1, ray, ear, ears, walls, earAngle, earHalfWidth);
+			
+			// The narrow beam that reaches the ear first is the most accurate one
+			if (first == null || (second != null && 
+					second.getDistance() < first.getDistance()))
+				return second;
+			return first;
+		}
+		
+		return tracePath(origin, angle, depth == 0 ? this.spread : getSpread(2 * halfWidth), 
+				ray, ear, ears, walls);
+	}
+	
+	private RayHit tracePath(Point2D.Double origin, double angle, double spread, int ray, 
+			int ear, EarLayout ears, WallGrid walls)
+	{
+		// The directions grow counter-clockwise while the y-axis points downwards
+		double radians = Math.toRadians(angle);
+		double x = origin.getX();
+		double y = origin.getY();
+		double dx = Math.cos(radians);
+		double dy = -Math.sin(radians);
+		double traveled = 0, volumeLost = 0;
+		int lastWall = -1;
+		
+		for (int reflections = 0; reflections <= this.maxReflections; reflections++)
+		{
+			// The beam travels straight until it hits a wall
+			double length = Util.MAX_SOUND_DISTANCE - traveled;
+			int wall = walls.findFirstHit(x, y, dx, dy, length, lastWall);
+			if (wall >= 0)
+				length = walls.getWall(wall).getHitDistance(x, y, dx, dy);
+			
+			double distance = getHitDistance(x, y, dx, dy, traveled, spread, ears.getX(ear), 
+					ears.getY(ear), ears.getRadius(ear));
+			if (distance >= 0 && distance <= length)
+			{
+				// The sound that arrives from the other side of the head is shadowed
+				double shadow = 0;
+				if (ears.getSide(ear).isShadowed(x + dx * distance - ears.getX(ear)))
+					shadow = Ear.HEAD_SHADOW;
+				
+				return new RayHit(ray, ear, traveled + distance, volumeLost + shadow, 
+						reflections);
+			}
+			
+			if (wall < 0)
+				return null;
+			
+			// Reflects the beam from the wall. Some of the sound is absorbed by the wall.
+			SoundWall reflector = walls.getWall(wall);
+			double[] reflected = reflector.reflect(dx, dy);
+			x += dx * length;
+			y += dy * length;
+			dx = reflected[0];
+			dy = reflected[1];
+			traveled += length;
+			volumeLost += reflector.getAbsorption();
+			lastWall = wall;
+		}
+		
+		return null;
+	}
+	
+	private static double getFirstAngle(double direction, int fanWidth)
+	{
+		return direction - fanWidth / 2;
+	}
+	
+	private int getRayCount(int fanWidth)
+	{
+		return (int) Math.ceil(2 * (fanWidth / 2) / this.degreesPerRay);
+	}
+	
+	private static double getAngleDifference(double first, double second)
+	{
+		double difference = (first - second) % 360;
+		if (difference < -180)
+			difference += 360;
+		else if (difference >= 180)
+			difference -= 360;
+		
+		return difference;
+	}
+	
+	/**
+	 * Calculates how much a beam's radius grows for each pixel it travels
+	 * @param degrees How many degrees the beam covers
+	 * @return How many pixels the beam's radius grows for each pixel traveled
+	 */
+	protected static double getSpread(double degrees)
+	{
+		return Math.tan(Math.toRadians(degrees / 2));
+	}
+	
+	/**
+	 * Calculates how far a beam has to travel before it touches a circle. The beam's 
+	 * radius grows linearly with the total distance it has traveled.
+	 * 
+	 * @param x The x-coordinate where the beam starts from
+	 * @param y The y-coordinate where the beam starts from
+	 * @param dx The x-component of the beam's unit direction vector
+	 * @param dy The y-component of the beam's unit direction vector
+	 * @param traveled How many pixels the beam had traveled before reaching the 
+	 * starting point
+	 * @param spread How much the beam's radius grows for each pixel traveled [0, 1)
+	 * @param cx The x-coordinate of the circle's center
+	 * @param cy The y-coordinate of the circle's center
+	 * @param radius The radius of the circle
+	 * @return How many pixels the beam travels from the starting point before it 
+	 * touches the circle. -1 if the beam never touches the circle.
+	 */
+	protected static double getHitDistance(double x, double y, double dx, double dy, 
+			double traveled, double spread, double cx, double cy, double radius)
+	{
+		// Solves the smallest t >= 0 for which |c - (p + t * d)| <= r + spread *
+		// (traveled + t)
+		double wx = cx - x;
+		double wy = cy - y;
+		double reach = radius + spread * traveled;
+		
+		double c = wx * wx + wy * wy - reach * reach;
+		// The beam already touches the circle
+		if (c <= 0)
+			return 0;
+		
+		double a = 1 - spread * spread;
+		double b = wx * dx + wy * dy + reach * spread;
+		
+		// The circle is behind the beam
+		if (b <= 0)
+			return -1;
+		
+		double discriminant = b * b - a * c;
+		if (discriminant < 0)
+			return -1;
+		
+		return (b - Math.sqrt(discriminant)) / a;
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private class CastTask extends RecursiveTask<ArrayList<RayHit>>
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Point2D.Double origin;
+		private final double firstAngle;
+		private final int firstRay, lastRay;
+		private final EarLayout ears;
+		private final WallGrid walls;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public CastTask(Point2D.Double origin, double firstAngle, int firstRay, int lastRay, 
+				EarLayout ears, WallGrid walls)
+		{
+			this.origin = origin;
+			this.firstAngle = firstAngle;
+			this.firstRay = firstRay;
+			this.lastRay = lastRay;
+			this.ears = ears;
+			this.walls = walls;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		protected ArrayList<RayHit> compute()
+		{
+			if (this.lastRay - this.firstRay <= RayCaster.this.sequentialThreshold)
+				return castRange(this.origin, this.firstAngle, this.firstRay, this.lastRay, 
+						this.ears, this.walls);
+			
+			// Casts the second half in another thread while this thread casts the first
+			// half. The hits are merged in the order of the rays.
+			int middle = (this.firstRay + this.lastRay) / 2;
+			CastTask second = new CastTask(this.origin, this.firstAngle, middle, 
+					this.lastRay, this.ears, this.walls);
+			second.fork();
+			
+			ArrayList<RayHit> hits = new CastTask(this.origin, this.firstAngle, 
+					this.firstRay, middle, this.ears, this.walls).compute();
+			hits.addAll(second.join());
+			
+			return hits;
+		}
+	}
+}
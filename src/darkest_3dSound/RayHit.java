@@ -0,0 +1,82 @@
+package darkest_3dSound;
+
+/**
+ * RayHit records that a ray cast from a sound source reached an ear, possibly after being 
+ * reflected from walls. The hits are kept so that the paths can be re-evaluated when the source moves only slightly.
+ * 
+ * @author Mikko Hilpinen
+ * @since 23.10.2014
+ */
+public class RayHit
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final int rayIndex, earIndex, reflections;
+	private final double distance, volumeLost;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new hit
+	 * 
+	 * @param rayIndex The index of the ray in the source's fan
+	 * @param earIndex The index of the ear in the ear layout
+	 * @param distance How many pixels the ray traveled before reaching the ear
+	 * @param volumeLost How many desibels of volume the walls absorbed along the way
+	 * @param reflections How many times the ray was reflected before reaching the ear
+	 */
+	public RayHit(int rayIndex, int earIndex, double distance, double volumeLost, 
+			int reflections)
+	{
+		// Initializes attributes
+		this.rayIndex = rayIndex;
+		this.earIndex = earIndex;
+		this.distance = distance;
+		this.volumeLost = volumeLost;
+		this.reflections = reflections;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The index of the ray in the source's fan
+	 */
+	public int getRayIndex()
+	{
+		return this.rayIndex;
+	}
+	
+	/**
+	 * @return The index of the ear in the ear layout
+	 */
+	public int getEarIndex()
+	{
+		return this.earIndex;
+	}
+	
+	/**
+	 * @return How many pixels the ray traveled before reaching the ear
+	 */
+	public double getDistance()
+	{
+		return this.distance;
+	}
+	
+	/**
+	 * @return How many desibels of volume the walls absorbed along the way
+	 */
+	public double getVolumeLost()
+	{
+		return this.volumeLost;
+	}
+	
+	/**
+	 * @return How many times the ray was reflected before reaching the ear
+	 */
+	public int getReflections()
+	{
+		return this.reflections;
+	}
+}
@@ -0,0 +1,342 @@
+package darkest_3dSound;
+
+import genesis_graphic.DepthConstants;
+import genesis_logic.Actor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import omega_world.Area;
+import omega_world.DrawnObject;
+
+/**
+ * SoundDebugOverlay draws the sound walls, ears, edges and particles of an area. The 
+ * ears and particles don't draw themselves. Instead, the overlay copies their positions 
+ * into a frame at its own refresh rate and draws the whole frame in a single pass. The 
+ * overlay is hidden and inactive by default, in which case it doesn't cost anything.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class SoundDebugOverlay extends DrawnObject implements Actor
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How many milliseconds there are between the frames by default
+	 */
+	public static final int DEFAULT_REFRESH_INTERVAL = 100;
+	
+	private static final Color WALL_COLOR = Color.GRAY;
+	private static final Color EAR_COLOR = Color.RED;
+	private static final Color EDGE_COLOR = new Color(0, 160, 0, 96);
+	private static final Color PARTICLE_COLOR = Color.BLUE;
+	
+	private static final Map<Area, SoundDebugOverlay> OVERLAYS = 
+			new HashMap<Area, SoundDebugOverlay>();
+	
+	private final Area area;
+	private volatile Frame frame;
+	private long refreshIntervalNanos, lastRefresh;
+	private boolean enabled;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private SoundDebugOverlay(Area area)
+	{
+		super(0, 0, DepthConstants.NORMAL, area);
+		
+		// Initializes attributes
+		this.area = area;
+		this.frame = null;
+		this.refreshIntervalNanos = DEFAULT_REFRESH_INTERVAL * 1000000L;
+		this.lastRefresh = 0;
+		this.enabled = false;
+		
+		setInvisible();
+		inactivate();
+		
+		// Adds the object to the handler(s)
+		area.getActorHandler().addActor(this);
+	}
+	
+	
+	// IMPLEMENTED METHODS	------------------------------
+	
+	@Override
+	public void act(double steps)
+	{
+		if (!this.enabled)
+			return;
+		
+		// The frame is refreshed by time so that the cost doesn't depend on the step
+		// length
+		long now = System.nanoTime();
+		if (this.frame != null && now - this.lastRefresh < this.refreshIntervalNanos)
+			return;
+		
+		this.lastRefresh = now;
+		this.frame = new Frame(this.area);
+	}
+	
+	@Override
+	public void drawSelfBasic(Graphics2D g2d)
+	{
+		Frame frame = this.frame;
+		if (frame != null)
+			frame.draw(g2d);
+	}
+	
+	@Override
+	public int getOriginX()
+	{
+		return 0;
+	}
+	
+	@Override
+	public int getOriginY()
+	{
+		return 0;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return Is the overlay currently drawn
+	 */
+	public boolean isEnabled()
+	{
+		return this.enabled;
+	}
+	
+	/**
+	 * Shows or hides the overlay. A hidden overlay doesn't collect or draw anything.
+	 * @param enabled Should the overlay be drawn
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+		if (enabled)
+		{
+			activate();
+			setVisible();
+		}
+		else
+		{
+			inactivate();
+			setInvisible();
+			this.frame = null;
+		}
+	}
+	
+	/**
+	 * @return How many milliseconds there are between the frames
+	 */
+	public int getRefreshInterval()
+	{
+		return (int) (this.refreshIntervalNanos / 1000000);
+	}
+	
+	/**
+	 * Changes how often the overlay collects a new frame
+	 * @param refreshInterval How many milliseconds there are between the frames
+	 */
+	public void setRefreshInterval(int refreshInterval)
+	{
+		this.refreshIntervalNanos = refreshInterval * 1000000L;
+	}
+	
+	/**
+	 * @return How wide the overlay is (in pixels). The overlay has no size of its own 
+	 * since the shapes are drawn in the area's coordinates.
+	 */
+	public int getWidth()
+	{
+		return 0;
+	}
+	
+	/**
+	 * @return How high the overlay is (in pixels). The overlay has no size of its own 
+	 * since the shapes are drawn in the area's coordinates.
+	 */
+	public int getHeight()
+	{
+		return 0;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the debug overlay of the given area
+	 * @param area The area whose overlay is requested
+	 * @return The debug overlay of the area. A new hidden overlay is created if the area 
+	 * didn't have one yet.
+	 */
+	public static SoundDebugOverlay forArea(Area area)
+	{
+		synchronized (OVERLAYS)
+		{
+			SoundDebugOverlay overlay = OVERLAYS.get(area);
+			if (overlay == null)
+			{
+				overlay = new SoundDebugOverlay(area);
+				OVERLAYS.put(area, overlay);
+			}
+			
+			return overlay;
+		}
+	}
+	
+	/**
+	 * Kills the debug overlay of the given area. This should be called when the area is 
+	 * no longer used.
+	 * @param area The area whose overlay is removed
+	 */
+	public static void forget(Area area)
+	{
+		SoundDebugOverlay overlay;
+		synchronized (OVERLAYS)
+		{
+			overlay = OVERLAYS.remove(area);
+		}
+		
+		if (overlay != null)
+		{
+			overlay.setEnabled(false);
+			overlay.kill();
+		}
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	/**
+	 * Frame holds the shapes of a single moment. The frame is collected in the game 
+	 * thread and isn't changed afterwards, so it can be drawn from any thread.
+	 */
+	private static class Frame
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		// Walls and edges are stored as lines (x1, y1, x2, y2) while ears and particles
+		// are stored as circles (x, y, diameter)
+		private final float[] walls, ears, edges, particles;
+		private final int edgeCount;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public Frame(Area area)
+		{
+			List<SoundWall> walls = SoundGeometry.forArea(area).getWalls();
+			this.walls = new float[4 * walls.size()];
+			for (int i = 0; i < walls.size(); i++)
+			{
+				SoundWall wall = walls.get(i);
+				this.walls[4 * i] = (float) wall.getStartX();
+				this.walls[4 * i + 1] = (float) wall.getStartY();
+				this.walls[4 * i + 2] = (float) wall.getEndX();
+				this.walls[4 * i + 3] = (float) wall.getEndY();
+			}
+			
+			List<Ear> ears = Ear.getEars(area);
+			this.ears = new float[3 * ears.size()];
+			for (int i = 0; i < ears.size(); i++)
+			{
+				Ear ear = ears.get(i);
+				this.ears[3 * i] = (float) ear.getX();
+				this.ears[3 * i + 1] = (float) ear.getY();
+				this.ears[3 * i + 2] = (float) (2 * ear.getRadius());
+			}
+			
+			// Each edge is drawn as a line from its source to the ear it reaches
+			List<SoundSource> sources = SoundSource.getSources(area);
+			int edgeCapacity = 0;
+			for (SoundSource source : sources)
+			{
+				edgeCapacity += source.getEdges().size();
+			}
+			this.edges = new float[4 * edgeCapacity];
+			int edgeCount = 0;
+			for (SoundSource source : sources)
+			{
+				EdgeBuffer buffer = source.getEdges();
+				for (int i = 0; i < buffer.size() && edgeCount < edgeCapacity; i++)
+				{
+					Ear target = buffer.getTarget(i);
+					if (target == null)
+						continue;
+					
+					this.edges[4 * edgeCount] = (float) source.getPosition().getX();
+					this.edges[4 * edgeCount + 1] = (float) source.getPosition().getY();
+					this.edges[4 * edgeCount + 2] = (float) target.getX();
+					this.edges[4 * edgeCount + 3] = (float) target.getY();
+					edgeCount ++;
+				}
+			}
+			this.edgeCount = edgeCount;
+			
+			List<SoundParticle> particles = SoundParticle.getLiveParticles(area);
+			this.particles = new float[3 * particles.size()];
+			for (int i = 0; i < particles.size(); i++)
+			{
+				SoundParticle particle = particles.get(i);
+				this.particles[3 * i] = (float) particle.getX();
+				this.particles[3 * i + 1] = (float) particle.getY();
+				this.particles[3 * i + 2] = (float) particle.getBeamWidth();
+			}
+		}
+		
+		
+		// OTHER METHODS	------------------------------
+		
+		public void draw(Graphics2D g2d)
+		{
+			Color originalColor = g2d.getColor();
+			Line2D.Float line = new Line2D.Float();
+			Ellipse2D.Float circle = new Ellipse2D.Float();
+			
+			g2d.setColor(WALL_COLOR);
+			drawLines(g2d, line, this.walls, this.walls.length / 4);
+			g2d.setColor(EDGE_COLOR);
+			drawLines(g2d, line, this.edges, this.edgeCount);
+			g2d.setColor(EAR_COLOR);
+			drawCircles(g2d, circle, this.ears);
+			g2d.setColor(PARTICLE_COLOR);
+			drawCircles(g2d, circle, this.particles);
+			
+			g2d.setColor(originalColor);
+		}
+		
+		private static void drawLines(Graphics2D g2d, Line2D.Float line, float[] lines, 
+				int count)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				line.setLine(lines[4 * i], lines[4 * i + 1], lines[4 * i + 2], 
+						lines[4 * i + 3]);
+				g2d.draw(line);
+			}
+		}
+		
+		private static void drawCircles(Graphics2D g2d, Ellipse2D.Float circle, 
+				float[] circles)
+		{
+			for (int i = 0; i < circles.length; i += 3)
+			{
+				float diameter = circles[i + 2];
+				circle.setFrame(circles[i] - diameter / 2, circles[i + 1] - diameter / 2, 
+						diameter, diameter);
+				g2d.draw(circle);
+			}
+		}
+	}
+}
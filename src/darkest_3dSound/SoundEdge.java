@@ -1,9 +1,17 @@
 package darkest_3dSound;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import darkest_utility.AttenuationTable;
 import darkest_utility.Util;
 
 /**
- * SoundEdges are SoundParticle paths that lead from an SoundSource to an Ear.
+ * SoundEdges are SoundParticle paths that lead from an SoundSource to an Ear. The edges 
+ * can be recycled: an edge that is no longer used can be released back to a pool from 
+ * which new edges are obtained. The snapshots copy the edges into buffers and release 
+ * them, so the edges are only needed while they are being calculated.
  * 
  * @author Mikko Hilpinen
  * @since 16.10.2014
@@ -12,10 +20,15 @@ public class SoundEdge
 {
 	// ATTRIBUTES	--------------------------------------
 	
-	private int volumeAdjustment;
+	private int volumeAdjustment, startVolume;
 	private double delaySteps;
 	private Ear target;
-	private boolean isValid;
+	private Ear.Side side;
+	private boolean isValid, released;
+	
+	private static final AttenuationTable ATTENUATION = AttenuationTable.getDefault();
+	private static final SoundEdge[] POOL = new SoundEdge[1024];
+	private static int pooledEdges = 0;
 	
 	
 	// CONSTRUCTOR	--------------------------------------
@@ -31,28 +44,20 @@ public class SoundEdge
 	 */
 	public SoundEdge(int startVolume, int volumeLostInCollisions, double pixelsTraveled, Ear target)
 	{
-		System.out.println("Sound Edge created");
-		
+		this(startVolume, volumeLostInCollisions, pixelsTraveled, target, target.getSide());
+	}
+	
+	private SoundEdge(int startVolume, int volumeLostInCollisions, double pixelsTraveled, 
+			Ear target, Ear.Side side)
+	{
 		// Initializes attributes
-		this.isValid = true;
-		this.delaySteps = pixelsTraveled / Util.SOUND_SPEED_PIXELS_PER_STEP;
-		this.target = target;
-		this.volumeAdjustment = (int) Util.getVolumeAdjustment(pixelsTraveled) - 
-				volumeLostInCollisions;
-		
-		// Checks if the volume is too large
-		if (startVolume + this.volumeAdjustment > Util.MAX_SOUND_VOLUME)
-			this.volumeAdjustment = Util.MAX_SOUND_VOLUME - startVolume;
-		
-		// Checks if the volume is too small
-		if (startVolume + this.volumeAdjustment < Util.MIN_SOUND_VOLUME)
-			this.isValid = false;
-		
-		System.out.println("Edge -------");
-		System.out.println("Delay: " + Util.stepsToSeconds(this.delaySteps) * 1000 + " ms");
-		System.out.println("Delay: " + this.delaySteps + " steps");
-		System.out.println("VolumeAdj: " + this.volumeAdjustment + " dB");
-		System.out.println("Target side: " + target.getSide());
+		initialize(startVolume, volumeLostInCollisions, pixelsTraveled, target, side);
+	}
+	
+	private SoundEdge(SoundEdge original, int volumeAdjustment)
+	{
+		// Initializes attributes
+		initialize(original, volumeAdjustment);
 	}
 
 	
@@ -75,13 +80,22 @@ public class SoundEdge
 	}
 	
 	/**
-	 * @return Which ear the sound reached
+	 * @return Which ear the sound reached. Null if the edge was calculated without ear 
+	 * objects (see {@link HeadlessSoundScene}).
 	 */
 	public Ear getTarget()
 	{
 		return this.target;
 	}
 	
+	/**
+	 * @return Which side of the head the sound reached
+	 */
+	public Ear.Side getSide()
+	{
+		return this.side;
+	}
+	
 	/**
 	 * @return Is there any point in using this edge
 	 */
@@ -93,6 +107,65 @@ public class SoundEdge
 	
 	// OTHER METHODS	---------------------------------------------
 	
+	/**
+	 * Creates a new soundEdge or reuses one that has been released
+	 * @param startVolume How strong the volume is by default (in desibels, an approximate)
+	 * @param volumeLostInCollisions How many desibels of volume were lost in SoundParticle 
+	 * collisions
+	 * @param pixelsTraveled How many pixels the SoundParticle traveled while creating this 
+	 * edge
+	 * @param target Which ear the SoundParticle reached
+	 * @return An edge between the given target and the source
+	 */
+	public static SoundEdge obtain(int startVolume, int volumeLostInCollisions, 
+			double pixelsTraveled, Ear target)
+	{
+		return obtain(startVolume, volumeLostInCollisions, pixelsTraveled, target, 
+				target.getSide());
+	}
+	
+	/**
+	 * Creates a new soundEdge or reuses one that has been released. The side of the head 
+	 * is given separately so that the target doesn't need to be read.
+	 * @param startVolume How strong the volume is by default (in desibels, an approximate)
+	 * @param volumeLostInCollisions How many desibels of volume were lost in collisions
+	 * @param pixelsTraveled How many pixels the sound traveled along the edge
+	 * @param target Which ear the sound reached. May be null if the edge isn't tied to an 
+	 * ear object.
+	 * @param side The side of the head the sound reached
+	 * @return An edge between the given target and the source
+	 */
+	protected static SoundEdge obtain(int startVolume, int volumeLostInCollisions, 
+			double pixelsTraveled, Ear target, Ear.Side side)
+	{
+		SoundEdge edge = takeFromPool();
+		if (edge == null)
+			return new SoundEdge(startVolume, volumeLostInCollisions, pixelsTraveled, target, 
+					side);
+		
+		edge.initialize(startVolume, volumeLostInCollisions, pixelsTraveled, target, side);
+		return edge;
+	}
+	
+	/**
+	 * Returns the edge to the pool so that it can be reused. The edge must not be used 
+	 * after it has been released.
+	 */
+	public void release()
+	{
+		if (this.released)
+			return;
+		
+		this.released = true;
+		this.target = null;
+		
+		synchronized (POOL)
+		{
+			if (pooledEdges < POOL.length)
+				POOL[pooledEdges++] = this;
+		}
+	}
+	
 	/**
 	 * Tells whether this soundEdge is basically identical to another soundEdge
 	 * @param another The soundEdge this edge is compared with
@@ -101,7 +174,135 @@ public class SoundEdge
 	protected boolean isDuplicateWith(SoundEdge another)
 	{
 		return (this.volumeAdjustment == another.volumeAdjustment && 
-				this.target.getSide() == another.target.getSide() &&
+				this.side == another.side &&
 				(int) (this.delaySteps) == (int) (another.delaySteps));
 	}
+	
+	/**
+	 * Merges the duplicate edges (see {@link #isDuplicateWith(SoundEdge)}) in the given 
+	 * list. Instead of simply dropping the duplicates, the acoustic energy of the merged 
+	 * edges is added to the edge that is kept, so no loudness is lost. Runs in linear time.
+	 * The edges that don't end up in the returned list are released.
+	 * @param edges The edges that may contain duplicates
+	 * @return A new list that contains no duplicate edges. The edges are in the same order 
+	 * as in the original list.
+	 */
+	protected static ArrayList<SoundEdge> mergeDuplicates(List<SoundEdge> edges)
+	{
+		HashMap<Long, Integer> buckets = new HashMap<Long, Integer>(edges.size() * 2);
+		ArrayList<SoundEdge> merged = new ArrayList<SoundEdge>(edges.size());
+		double[] energies = new double[edges.size()];
+		int[] counts = new int[edges.size()];
+		
+		for (SoundEdge edge : edges)
+		{
+			Long key = Long.valueOf(edge.getBucketKey());
+			Integer index = buckets.get(key);
+			
+			if (index == null || !merged.get(index).isDuplicateWith(edge))
+			{
+				energies[merged.size()] = edge.getEnergy();
+				counts[merged.size()] = 1;
+				buckets.put(key, merged.size());
+				merged.add(edge);
+			}
+			else
+			{
+				energies[index] += edge.getEnergy();
+				counts[index] ++;
+				edge.release();
+			}
+		}
+		
+		// Replaces the merged edges with louder versions
+		for (int i = 0; i < merged.size(); i++)
+		{
+			if (counts[i] > 1)
+			{
+				SoundEdge original = merged.get(i);
+				SoundEdge louder = takeFromPool();
+				if (louder == null)
+					louder = new SoundEdge(original, 
+							(int) Math.round(10 * Math.log10(energies[i])));
+				else
+					louder.initialize(original, 
+							(int) Math.round(10 * Math.log10(energies[i])));
+				
+				merged.set(i, louder);
+				original.release();
+			}
+		}
+		
+		return merged;
+	}
+	
+	private long getBucketKey()
+	{
+		// The key is built from the fields isDuplicateWith compares, so only duplicates
+		// share a bucket. Side takes the lowest bit, the delay the next 32 bits and the
+		// volume the rest.
+		return ((this.volumeAdjustment & 0xFFFFL) << 33) | 
+				(((long) this.delaySteps & 0xFFFFFFFFL) << 1) | this.side.ordinal();
+	}
+	
+	private double getEnergy()
+	{
+		// Converts the desibels into relative sound intensity
+		return ATTENUATION.getEnergy(this.volumeAdjustment);
+	}
+	
+	private void initialize(int startVolume, int volumeLostInCollisions, 
+			double pixelsTraveled, Ear target, Ear.Side side)
+	{
+		this.isValid = true;
+		this.released = false;
+		this.startVolume = startVolume;
+		this.delaySteps = pixelsTraveled / Util.SOUND_SPEED_PIXELS_PER_STEP;
+		this.target = target;
+		this.side = side;
+		// The adjustment is infinite at zero distance, so it's limited before the cast
+		this.volumeAdjustment = (int) Math.min(Util.MAX_SOUND_VOLUME, 
+				ATTENUATION.getVolumeAdjustment(pixelsTraveled)) - volumeLostInCollisions;
+		
+		// Checks if the volume is too large
+		if (startVolume + this.volumeAdjustment > Util.MAX_SOUND_VOLUME)
+			this.volumeAdjustment = Util.MAX_SOUND_VOLUME - startVolume;
+		
+		// Checks if the volume is too small
+		if (startVolume + this.volumeAdjustment < Util.MIN_SOUND_VOLUME)
+			this.isValid = false;
+		
+		if (SoundMetrics.isTraceEnabled())
+			SoundMetrics.trace("Edge: " + Util.stepsToSeconds(this.delaySteps) * 1000 + 
+					" ms (" + this.delaySteps + " steps), " + this.volumeAdjustment + 
+					" dB, " + this.side);
+	}
+	
+	private void initialize(SoundEdge original, int volumeAdjustment)
+	{
+		this.released = false;
+		this.isValid = original.isValid;
+		this.startVolume = original.startVolume;
+		this.delaySteps = original.delaySteps;
+		this.target = original.target;
+		this.side = original.side;
+		this.volumeAdjustment = volumeAdjustment;
+		
+		// Checks if the volume is too large
+		if (this.startVolume + this.volumeAdjustment > Util.MAX_SOUND_VOLUME)
+			this.volumeAdjustment = Util.MAX_SOUND_VOLUME - this.startVolume;
+	}
+	
+	private static SoundEdge takeFromPool()
+	{
+		synchronized (POOL)
+		{
+			if (pooledEdges == 0)
+				return null;
+			
+			SoundEdge edge = POOL[--pooledEdges];
+			POOL[pooledEdges] = null;
+			return edge;
+		}
+	}
 }
@@ -0,0 +1,149 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import omega_world.Area;
+
+/**
+ * SoundGeometry holds the sound walls of a single area. The walls are kept in a WallGrid, 
+ * which is built once and only rebuilt after the walls have changed.
+ * 
+ * @author Mikko Hilpinen
+ * @since 24.10.2014
+ */
+public class SoundGeometry
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How wide and high the cells in the wall grids are by default (in pixels)
+	 */
+	public static final double DEFAULT_CELL_SIZE = 128;
+	
+	private static final Map<Area, SoundGeometry> GEOMETRIES = 
+			new HashMap<Area, SoundGeometry>();
+	
+	private final List<SoundWall> walls;
+	private volatile WallGrid grid;
+	private double cellSize;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private SoundGeometry()
+	{
+		// Initializes attributes
+		this.walls = new ArrayList<SoundWall>();
+		this.grid = WallGrid.EMPTY;
+		this.cellSize = DEFAULT_CELL_SIZE;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The walls in the area
+	 */
+	public synchronized List<SoundWall> getWalls()
+	{
+		return new ArrayList<SoundWall>(this.walls);
+	}
+	
+	/**
+	 * @return A grid that holds the current walls of the area. The grid is only rebuilt 
+	 * when the walls change.
+	 */
+	public WallGrid getGrid()
+	{
+		WallGrid grid = this.grid;
+		if (grid != null)
+			return grid;
+		
+		synchronized (this)
+		{
+			if (this.grid == null)
+				this.grid = new WallGrid(this.walls, this.cellSize);
+			return this.grid;
+		}
+	}
+	
+	/**
+	 * Changes the size of the cells in the wall grid. Walls that are much longer than a 
+	 * cell are stored in many cells while large cells hold many walls.
+	 * @param cellSize How wide and high each cell is (in pixels)
+	 */
+	public synchronized void setCellSize(double cellSize)
+	{
+		this.cellSize = cellSize;
+		this.grid = null;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the geometry of the given area
+	 * @param area The area whose geometry is requested
+	 * @return The sound geometry of the area. A new empty geometry is created if the area 
+	 * didn't have one yet.
+	 */
+	public static SoundGeometry forArea(Area area)
+	{
+		synchronized (GEOMETRIES)
+		{
+			SoundGeometry geometry = GEOMETRIES.get(area);
+			if (geometry == null)
+			{
+				geometry = new SoundGeometry();
+				GEOMETRIES.put(area, geometry);
+			}
+			
+			return geometry;
+		}
+	}
+	
+	/**
+	 * Forgets the geometry of the given area. This should be called when the area is no 
+	 * longer used.
+	 * @param area The area whose geometry is removed
+	 */
+	public static void forget(Area area)
+	{
+		synchronized (GEOMETRIES)
+		{
+			GEOMETRIES.remove(area);
+		}
+	}
+	
+	/**
+	 * Adds a new wall to the area
+	 * @param wall The wall that will be added
+	 */
+	public synchronized void addWall(SoundWall wall)
+	{
+		this.walls.add(wall);
+		this.grid = null;
+	}
+	
+	/**
+	 * Removes a wall from the area
+	 * @param wall The wall that will be removed
+	 */
+	public synchronized void removeWall(SoundWall wall)
+	{
+		if (this.walls.remove(wall))
+			this.grid = null;
+	}
+	
+	/**
+	 * Removes all the walls from the area
+	 */
+	public synchronized void clear()
+	{
+		this.walls.clear();
+		this.grid = WallGrid.EMPTY;
+	}
+}
@@ -0,0 +1,469 @@
+package darkest_3dSound;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SoundMetrics collects statistics about the sound system. Each metric is a histogram that 
+ * keeps count of the recorded values in power of two buckets, so recording a value only 
+ * takes a few atomic additions. The metrics can be written in csv format or read through 
+ * JMX. There's also a debug trace, which is disabled by default.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public class SoundMetrics implements SoundMetricsMBean
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private static final Histogram[] HISTOGRAMS = createHistograms();
+	private static volatile PrintStream trace = null;
+	private static SoundMetrics bean = null;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private SoundMetrics()
+	{
+		// The constructor is hidden since the metrics are static
+	}
+	
+	
+	// IMPLEMENTED METHODS	------------------------------
+	
+	@Override
+	public long getPrepareCount()
+	{
+		return getCount(Metric.PREPARE_TIME);
+	}
+	
+	@Override
+	public double getMeanPrepareMicros()
+	{
+		return getMean(Metric.PREPARE_TIME);
+	}
+	
+	@Override
+	public long getMaxPrepareMicros()
+	{
+		return getMax(Metric.PREPARE_TIME);
+	}
+	
+	@Override
+	public long getRaysCast()
+	{
+		return getTotal(Metric.RAYS_CAST);
+	}
+	
+	@Override
+	public long getParticlesSent()
+	{
+		return getTotal(Metric.PARTICLES_SENT);
+	}
+	
+	@Override
+	public long getEdgesProduced()
+	{
+		return getTotal(Metric.EDGES_PRODUCED);
+	}
+	
+	@Override
+	public long getDuplicatesMerged()
+	{
+		return getTotal(Metric.DUPLICATES_MERGED);
+	}
+	
+	@Override
+	public long getVoicesStarted()
+	{
+		return getTotal(Metric.VOICES_STARTED);
+	}
+	
+	@Override
+	public long getVoicesCulled()
+	{
+		return getTotal(Metric.VOICES_CULLED);
+	}
+	
+	@Override
+	public long getSourcesCulled()
+	{
+		return getTotal(Metric.SOURCES_CULLED);
+	}
+	
+	@Override
+	public long getSourcesDirect()
+	{
+		return getTotal(Metric.SOURCES_DIRECT);
+	}
+	
+	@Override
+	public long getSourcesFull()
+	{
+		return getTotal(Metric.SOURCES_FULL);
+	}
+	
+	@Override
+	public int getActiveVoices()
+	{
+		return VoiceManager.getDefault().getActiveCount();
+	}
+	
+	@Override
+	public int getPeakVoices()
+	{
+		return VoiceManager.getDefault().getPeakCount();
+	}
+	
+	@Override
+	public boolean isTracing()
+	{
+		return isTraceEnabled();
+	}
+	
+	@Override
+	public void setTracing(boolean tracing)
+	{
+		setTrace(tracing ? System.out : null);
+	}
+	
+	@Override
+	public String getCsv()
+	{
+		StringWriter writer = new StringWriter();
+		try
+		{
+			writeCsv(writer);
+		}
+		catch (IOException e)
+		{
+			// StringWriters don't throw IOExceptions
+		}
+		
+		return writer.toString();
+	}
+	
+	@Override
+	public void reset()
+	{
+		resetAll();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @param metric The metric
+	 * @return How many values have been recorded for the metric
+	 */
+	public static long getCount(Metric metric)
+	{
+		return HISTOGRAMS[metric.ordinal()].count.get();
+	}
+	
+	/**
+	 * @param metric The metric
+	 * @return The sum of the values recorded for the metric
+	 */
+	public static long getTotal(Metric metric)
+	{
+		return HISTOGRAMS[metric.ordinal()].total.get();
+	}
+	
+	/**
+	 * @param metric The metric
+	 * @return The largest value recorded for the metric
+	 */
+	public static long getMax(Metric metric)
+	{
+		return HISTOGRAMS[metric.ordinal()].max.get();
+	}
+	
+	/**
+	 * @param metric The metric
+	 * @return The average of the values recorded for the metric. 0 if nothing has been 
+	 * recorded.
+	 */
+	public static double getMean(Metric metric)
+	{
+		long count = getCount(metric);
+		if (count == 0)
+			return 0;
+		return getTotal(metric) / (double) count;
+	}
+	
+	/**
+	 * Estimates a percentile of the recorded values. Since the values are stored in power 
+	 * of two buckets, the estimate may be up to twice the real value.
+	 * @param metric The metric
+	 * @param percentile The percentile [0, 1]
+	 * @return The upper bound of the bucket that contains the percentile
+	 */
+	public static long getPercentile(Metric metric, double percentile)
+	{
+		return HISTOGRAMS[metric.ordinal()].getPercentile(percentile);
+	}
+	
+	/**
+	 * @return Is the debug trace printed
+	 */
+	public static boolean isTraceEnabled()
+	{
+		return trace != null;
+	}
+	
+	/**
+	 * Changes where the debug trace is printed
+	 * @param stream The stream the trace is printed to. Null if the trace shouldn't be 
+	 * printed.
+	 */
+	public static void setTrace(PrintStream stream)
+	{
+		trace = stream;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Records a new value for the metric
+	 * @param metric The metric the value is recorded for
+	 * @param value The value that is recorded (non-negative)
+	 */
+	public static void record(Metric metric, long value)
+	{
+		HISTOGRAMS[metric.ordinal()].record(value);
+	}
+	
+	/**
+	 * Records how long a task took
+	 * @param metric The metric the duration is recorded for
+	 * @param startNanos The time the task started at (see {@link System#nanoTime()})
+	 */
+	public static void recordTime(Metric metric, long startNanos)
+	{
+		record(metric, (System.nanoTime() - startNanos) / 1000);
+	}
+	
+	/**
+	 * Prints a line to the debug trace. The callers should check 
+	 * {@link #isTraceEnabled()} before building the message so that nothing is done while 
+	 * the trace is disabled.
+	 * @param message The message that is printed
+	 */
+	public static void trace(String message)
+	{
+		PrintStream stream = trace;
+		if (stream != null)
+			stream.println(message);
+	}
+	
+	/**
+	 * Sets all of the metrics back to zero
+	 */
+	public static void resetAll()
+	{
+		for (Histogram histogram : HISTOGRAMS)
+		{
+			histogram.reset();
+		}
+	}
+	
+	/**
+	 * Writes all of the metrics in csv format. The first line contains the column names.
+	 * @param writer The writer the metrics are written to
+	 * @throws IOException If the writing failed
+	 */
+	public static void writeCsv(Writer writer) throws IOException
+	{
+		writer.write("metric,unit,count,total,mean,max,p50,p90,p99\n");
+		for (Metric metric : Metric.values())
+		{
+			writer.write(metric.name().toLowerCase() + "," + metric.getUnit() + "," + 
+					getCount(metric) + "," + getTotal(metric) + "," + getMean(metric) + "," + 
+					getMax(metric) + "," + getPercentile(metric, 0.5) + "," + 
+					getPercentile(metric, 0.9) + "," + getPercentile(metric, 0.99) + "\n");
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Registers the metrics to the platform's MBeanServer so that they can be read with 
+	 * JMX tools. The metrics are registered only once.
+	 * @throws JMException If the registration failed
+	 */
+	public static synchronized void registerMBean() throws JMException
+	{
+		if (bean != null)
+			return;
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		SoundMetrics newBean = new SoundMetrics();
+		server.registerMBean(newBean, new ObjectName("darkest_3dSound:type=SoundMetrics"));
+		bean = newBean;
+	}
+	
+	private static Histogram[] createHistograms()
+	{
+		Histogram[] histograms = new Histogram[Metric.values().length];
+		for (int i = 0; i < histograms.length; i++)
+		{
+			histograms[i] = new Histogram();
+		}
+		return histograms;
+	}
+	
+	
+	// ENUMERATIONS	--------------------------------------
+	
+	/**
+	 * Metric tells what is being measured
+	 */
+	public enum Metric
+	{
+		/**
+		 * How long it takes for a sound source to prepare its edges (in microseconds)
+		 */
+		PREPARE_TIME("us"), 
+		/**
+		 * How many rays are cast over a sound source's fan
+		 */
+		RAYS_CAST("rays"), 
+		/**
+		 * How many soundParticles a sound source sends
+		 */
+		PARTICLES_SENT("particles"), 
+		/**
+		 * How many edges are produced at once
+		 */
+		EDGES_PRODUCED("edges"), 
+		/**
+		 * How many duplicate edges are merged at once
+		 */
+		DUPLICATES_MERGED("edges"), 
+		/**
+		 * How many sounds start playing at once
+		 */
+		VOICES_STARTED("voices"), 
+		/**
+		 * How many virtual voices are forgotten at once without being played
+		 */
+		VOICES_CULLED("voices"), 
+		/**
+		 * How many sources are culled because they can't be heard
+		 */
+		SOURCES_CULLED("sources"), 
+		/**
+		 * How many sources only get their direct edges because they are far away
+		 */
+		SOURCES_DIRECT("sources"), 
+		/**
+		 * How many sources are fully propagated
+		 */
+		SOURCES_FULL("sources");
+		
+		
+		// ATTRIBUTES	----------------------------------
+		
+		private final String unit;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		private Metric(String unit)
+		{
+			this.unit = unit;
+		}
+		
+		
+		// GETTERS & SETTERS	--------------------------
+		
+		/**
+		 * @return The unit of the recorded values
+		 */
+		public String getUnit()
+		{
+			return this.unit;
+		}
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private static class Histogram
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private final AtomicLong count, total, max;
+		// Bucket i holds the values from 2^i to 2^(i + 1) - 1. Zero is in the first bucket.
+		private final AtomicLongArray buckets;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public Histogram()
+		{
+			this.count = new AtomicLong();
+			this.total = new AtomicLong();
+			this.max = new AtomicLong();
+			this.buckets = new AtomicLongArray(64);
+		}
+		
+		
+		// OTHER METHODS	------------------------------
+		
+		public void record(long value)
+		{
+			if (value < 0)
+				value = 0;
+			
+			this.count.incrementAndGet();
+			this.total.addAndGet(value);
+			this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value >>> 1));
+			
+			long oldMax = this.max.get();
+			while (value > oldMax && !this.max.compareAndSet(oldMax, value))
+			{
+				oldMax = this.max.get();
+			}
+		}
+		
+		public long getPercentile(double percentile)
+		{
+			long count = this.count.get();
+			if (count == 0)
+				return 0;
+			
+			long needed = (long) Math.ceil(count * percentile);
+			long counted = 0;
+			for (int i = 0; i < this.buckets.length(); i++)
+			{
+				counted += this.buckets.get(i);
+				if (counted >= needed)
+					return Math.min(this.max.get(), (2L << i) - 1);
+			}
+			
+			return this.max.get();
+		}
+		
+		public void reset()
+		{
+			this.count.set(0);
+			this.total.set(0);
+			this.max.set(0);
+			for (int i = 0; i < this.buckets.length(); i++)
+			{
+				this.buckets.set(i, 0);
+			}
+		}
+	}
+}
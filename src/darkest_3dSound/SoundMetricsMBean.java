@@ -0,0 +1,103 @@
+package darkest_3dSound;
+
+/**
+ * SoundMetricsMBean is the management interface through which the sound metrics can be 
+ * read with JMX tools (see {@link SoundMetrics#registerMBean()})
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public interface SoundMetricsMBean
+{
+	/**
+	 * @return How many times the sound sources have prepared their edges
+	 */
+	public long getPrepareCount();
+	
+	/**
+	 * @return How long the preparations have taken on average (in microseconds)
+	 */
+	public double getMeanPrepareMicros();
+	
+	/**
+	 * @return How long the slowest preparation has taken (in microseconds)
+	 */
+	public long getMaxPrepareMicros();
+	
+	/**
+	 * @return How many rays have been cast
+	 */
+	public long getRaysCast();
+	
+	/**
+	 * @return How many soundParticles have been sent
+	 */
+	public long getParticlesSent();
+	
+	/**
+	 * @return How many edges have been produced
+	 */
+	public long getEdgesProduced();
+	
+	/**
+	 * @return How many duplicate edges have been merged into other edges
+	 */
+	public long getDuplicatesMerged();
+	
+	/**
+	 * @return How many sounds have started playing
+	 */
+	public long getVoicesStarted();
+	
+	/**
+	 * @return How many virtual voices were forgotten without ever being played
+	 */
+	public long getVoicesCulled();
+	
+	/**
+	 * @return How many times a source has been culled because it couldn't be heard
+	 */
+	public long getSourcesCulled();
+	
+	/**
+	 * @return How many times a far away source has only been given its direct edges
+	 */
+	public long getSourcesDirect();
+	
+	/**
+	 * @return How many times a source has been fully propagated
+	 */
+	public long getSourcesFull();
+	
+	/**
+	 * @return How many voices the default voice manager is currently playing
+	 */
+	public int getActiveVoices();
+	
+	/**
+	 * @return How many voices the default voice manager has played at the same time at 
+	 * most
+	 */
+	public int getPeakVoices();
+	
+	/**
+	 * @return Is the debug trace printed
+	 */
+	public boolean isTracing();
+	
+	/**
+	 * Changes whether the debug trace is printed
+	 * @param tracing Should the debug trace be printed to the standard output
+	 */
+	public void setTracing(boolean tracing);
+	
+	/**
+	 * @return All of the metrics in csv format
+	 */
+	public String getCsv();
+	
+	/**
+	 * Sets all of the metrics back to zero
+	 */
+	public void reset();
+}
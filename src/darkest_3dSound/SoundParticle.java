@@ -1,39 +1,46 @@
 package darkest_3dSound;
 
 import genesis_graphic.DepthConstants;
+import genesis_logic.Actor;
 
 import java.awt.Graphics2D;
-import java.awt.geom.Point2D.Double;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import darkest_utility.Util;
-import omega_gameplay.BasicPhysicDrawnObject;
-import omega_gameplay.Collidable;
-import omega_gameplay.CollisionType;
+import omega_gameplay.HelpMath;
 import omega_world.Area;
+import omega_world.DrawnObject;
 
 /**
- * SoundParticles travel around the area and try to find an ear
+ * SoundParticles travel around the area and try to find an ear. The particles are pooled: 
+ * a killed particle stays dormant in its area until it is obtained again, so it doesn't 
+ * have to be recreated or re-registered to the handlers.
  * 
  * @author Mikko Hilpinen
  * @since 16.10.2014
  */
-public class SoundParticle extends BasicPhysicDrawnObject
+public class SoundParticle extends DrawnObject implements Actor
 {
-	// TODO: Change the collision detection to ear instead
-	// TODO: SoundWalls should be in their own collision handler
-	
 	// ATTRIBUTES	----------------------------------
 	
 	private int startVolume;
-	private double pixelsTraveled, volumeLostOnCollisions;
+	private double pixelsTraveled, volumeLostOnCollisions, direction;
 	private SoundSource source;
 	private Ear firstEar;
+	private AcousticWorld world;
+	private int lastWall;
+	private boolean dormant;
+	private Area area;
 	
-	// TODO: Find a better value here?
-	private static final int MAX_DISTANCE = (int) Util.metersToPixels(150);
-	
-	private static final Class<?>[] COLLISIONCLASSES = {Ear.class};
+	private static final Map<Area, Deque<SoundParticle>> POOLS = 
+			new HashMap<Area, Deque<SoundParticle>>();
+	private static final Map<Area, List<SoundParticle>> PARTICLES = 
+			new HashMap<Area, List<SoundParticle>>();
 	
 	
 	// CONSTRUCTOR	----------------------------------
@@ -47,28 +54,32 @@ public class SoundParticle extends BasicPhysicDrawnObject
 	 * @param source The source that created this particle
 	 * @param area The area where the particle is located at
 	 */
-	public SoundParticle(int x, int y, int volume, double direction, SoundSource source, 
+	private SoundParticle(int x, int y, int volume, double direction, SoundSource source, 
 			Area area)
 	{
-		super(x, y, DepthConstants.NORMAL, true, CollisionType.CIRCLE, area);
+		super(x, y, DepthConstants.NORMAL, area);
 		
 		// Initializes attributes
-		this.startVolume = volume;
-		this.pixelsTraveled = 0;
-		this.volumeLostOnCollisions = 0;
-		this.source = source;
-		this.firstEar = null;
-		
-		// TODO: The times 2 may not be a good idea, who knows
-		setMotion(direction, Util.SOUND_SPEED_PIXELS_PER_STEP * 0.01);
+		this.world = AcousticWorld.forArea(area);
+		this.area = area;
+		initialize(volume, direction, source);
 		
-		setRadius(getHeight());
-		setCircleCollisionPrecision(1, 1, 1);
-		//Point2D.Double[] colPoints = {new Point2D.Double(getOriginX(), getOriginY())};
-		//setRelativeCollisionPoints(colPoints);
+		// The particles are drawn by the SoundDebugOverlay
+		setInvisible();
 		
-		// Adds the particle to the handler(s)
-		area.getCollisionHandler().addCollisionListener(this);
+		// Adds the particle to the handler(s). The particle is only tested against the 
+		// acoustic world, so it isn't added to the collision handler.
+		area.getActorHandler().addActor(this);
+		synchronized (PARTICLES)
+		{
+			List<SoundParticle> particles = PARTICLES.get(area);
+			if (particles == null)
+			{
+				particles = new ArrayList<SoundParticle>();
+				PARTICLES.put(area, particles);
+			}
+			particles.add(this);
+		}
 	}
 	
 	
@@ -77,10 +88,15 @@ public class SoundParticle extends BasicPhysicDrawnObject
 	@Override
 	public void act(double steps)
 	{
-		super.act(steps);
+		// Dormant particles wait in the pool
+		if (this.dormant)
+			return;
 		
-		// Calculates the traveled distance
-		this.pixelsTraveled += getMovement().getSpeed() * steps;
+		// Travels the whole step at once. The ears are found along the swept path, so the
+		// arrival distances don't depend on how long the steps are.
+		travel(getX(), getY(), Util.SOUND_SPEED_PIXELS_PER_STEP * steps);
+		if (this.dormant)
+			return;
 		
 		// Increases in size as the distance gets larger
 		double scale = this.pixelsTraveled * SoundSource.degreesForParticle / 360.0;
@@ -91,85 +107,301 @@ public class SoundParticle extends BasicPhysicDrawnObject
 	}
 	
 	@Override
-	public void onCollision(ArrayList<Double> colPoints, Collidable collided, double steps)
+	public void kill()
 	{
-		System.out.println("Collides with something");
+		// Instead of dying, the particle is returned to the pool
+		if (this.dormant)
+			return;
+		
+		this.dormant = true;
+		this.source = null;
+		this.firstEar = null;
+		inactivate();
 		
-		// On wall collisions, some of the power is lost and the direction changes
-		/*
-		else if (collided instanceof PhysicalCollidable)
+		synchronized (POOLS)
 		{
-			// TODO: Lose some power and change direction. Change to soundWall
+			Deque<SoundParticle> pool = POOLS.get(this.area);
+			if (pool == null)
+			{
+				pool = new ArrayDeque<SoundParticle>();
+				POOLS.put(this.area, pool);
+			}
+			pool.push(this);
 		}
-		*/
 	}
-
+	
 	@Override
-	public Class<?>[] getSupportedListenerClasses()
+	public void drawSelfBasic(Graphics2D g2d)
 	{
-		return COLLISIONCLASSES;
+		// The particles are drawn in a single pass by the SoundDebugOverlay
 	}
 
 	@Override
-	public int getHeight()
+	public int getOriginX()
 	{
-		return 6;
+		return getWidth() / 2;
 	}
 
 	@Override
+	public int getOriginY()
+	{
+		return getHeight() / 2;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How wide the particle is at the start of its journey (in pixels)
+	 */
 	public int getWidth()
 	{
 		return getHeight();
 	}
-
-	@Override
-	public void drawSelfBasic(Graphics2D g2d)
+	
+	/**
+	 * @return How high the particle is at the start of its journey (in pixels)
+	 */
+	public int getHeight()
 	{
-		drawCollisionArea(g2d);
-		drawCollisionPoints(g2d);
-		g2d.drawOval(0, 0, getWidth(), getHeight());
+		return 6;
 	}
-
-	@Override
-	public int getOriginX()
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Creates a new soundParticle or reuses a dormant particle from the area's pool
+	 * @param x The x-coordinate of the particle (in pixels)
+	 * @param y The y-coordinate of the particle (in pixels)
+	 * @param volume How strong is the sound creating the particle? (in desibels)
+	 * @param direction The direction the particle will travel to
+	 * @param source The source that created this particle
+	 * @param area The area where the particle is located at
+	 * @return A particle that has just started its journey
+	 */
+	public static SoundParticle obtain(int x, int y, int volume, double direction, 
+			SoundSource source, Area area)
 	{
-		return getWidth() / 2;
+		SoundParticle particle = null;
+		synchronized (POOLS)
+		{
+			Deque<SoundParticle> pool = POOLS.get(area);
+			if (pool != null)
+				particle = pool.poll();
+		}
+		
+		if (particle == null)
+			return new SoundParticle(x, y, volume, direction, source, area);
+		
+		// Wakes up the dormant particle
+		particle.setPosition(x, y);
+		particle.initialize(volume, direction, source);
+		particle.activate();
+		
+		return particle;
 	}
-
-	@Override
-	public int getOriginY()
+	
+	/**
+	 * Kills all the dormant particles of the given area for good. This should be called 
+	 * when the area is no longer used.
+	 * @param area The area whose particle pool is cleared
+	 */
+	public static void clearPool(Area area)
 	{
-		return getHeight() / 2;
+		Deque<SoundParticle> pool;
+		synchronized (POOLS)
+		{
+			pool = POOLS.remove(area);
+		}
+		
+		if (pool != null)
+		{
+			for (SoundParticle particle : pool)
+			{
+				particle.dispose();
+			}
+		}
 	}
 	
-	
-	// OTHER METHODS	----------------------------------
+	/**
+	 * Finds the particles that are currently travelling in the given area
+	 * @param area The area the particles are searched from
+	 * @return A list containing the particles that aren't dormant
+	 */
+	static List<SoundParticle> getLiveParticles(Area area)
+	{
+		List<SoundParticle> live = new ArrayList<SoundParticle>();
+		synchronized (PARTICLES)
+		{
+			List<SoundParticle> particles = PARTICLES.get(area);
+			if (particles == null)
+				return live;
+			
+			for (SoundParticle particle : particles)
+			{
+				if (!particle.dormant)
+					live.add(particle);
+			}
+		}
+		
+		return live;
+	}
 	
 	/**
-	 * This method should be called when the particle collides with an ear
-	 * @param ear The ear the particle collided with
+	 * @return How wide the particle's beam currently is (in pixels)
 	 */
-	protected void onEarCollision(Ear ear)
+	double getBeamWidth()
 	{
-		// If the particle has already collided with this ear, doesn't react
-		if (ear.equals(this.firstEar) || isDead())
-			return;
+		return getWidth() * Math.max(1, 
+				this.pixelsTraveled * SoundSource.degreesForParticle / 360.0);
+	}
+	
+	private void onEarReached(Ear ear, double pixelsTraveled, boolean shadowed)
+	{
+		// The sound that arrives from the other side of the head is shadowed
+		int volumeLost = (int) this.volumeLostOnCollisions;
+		if (shadowed)
+			volumeLost += Ear.HEAD_SHADOW;
 		
-		//System.out.println("Particle: " + this);
-		this.source.addEdge(new SoundEdge(this.startVolume, 
-				(int) this.volumeLostOnCollisions, this.pixelsTraveled, ear));
+		this.source.addEdge(SoundEdge.obtain(this.startVolume, volumeLost, 
+				pixelsTraveled, ear));
 		
-		// If the particle collided with both ears, dies
+		// If the particle reached both ears, dies
 		if (this.firstEar != null)
 			kill();
 		else
 			this.firstEar = ear;
 	}
 	
+	private void initialize(int volume, double direction, SoundSource source)
+	{
+		this.startVolume = volume;
+		this.pixelsTraveled = 0;
+		this.volumeLostOnCollisions = 0;
+		this.source = source;
+		this.firstEar = null;
+		this.lastWall = -1;
+		this.dormant = false;
+		
+		this.direction = direction;
+		setScale(1, 1);
+	}
+	
+	private void dispose()
+	{
+		synchronized (PARTICLES)
+		{
+			List<SoundParticle> particles = PARTICLES.get(this.area);
+			if (particles != null)
+			{
+				particles.remove(this);
+				if (particles.isEmpty())
+					PARTICLES.remove(this.area);
+			}
+		}
+		
+		super.kill();
+	}
+	
+	private void travel(double x, double y, double distance)
+	{
+		// The particle never travels further than the sound can be heard
+		distance = Math.min(distance, Util.MAX_SOUND_DISTANCE - this.pixelsTraveled);
+		if (distance <= 0)
+			return;
+		
+		WallGrid walls = this.world.getGeometry().getGrid();
+		List<Ear> ears = new ArrayList<Ear>();
+		
+		// The directions grow counter-clockwise while the y-axis points downwards
+		double radians = Math.toRadians(this.direction);
+		double dx = Math.cos(radians);
+		double dy = -Math.sin(radians);
+		boolean reflected = false;
+		
+		while (distance > 0)
+		{
+			// The particle travels straight until it hits a wall or the step ends
+			int wall = walls.isEmpty() ? -1 : walls.findFirstHit(x, y, dx, dy, distance, 
+					this.lastWall);
+			double length = distance;
+			if (wall >= 0)
+				length = walls.getWall(wall).getHitDistance(x, y, dx, dy);
+			
+			// The ears along the segment are reached in the order of their distance. Only
+			// the ears the widening beam may touch are tested.
+			ears.clear();
+			this.world.findEars(x, y, x + dx * length, y + dy * length, 
+					RayCaster.getSpread(SoundSource.degreesForParticle) * 
+					(this.pixelsTraveled + length), ears);
+			if (reachEars(ears, x, y, dx, dy, length))
+				return;
+			
+			x += dx * length;
+			y += dy * length;
+			this.pixelsTraveled += length;
+			distance -= length;
+			
+			if (wall < 0)
+				break;
+			
+			// The rest of the step is traveled in the reflected direction and some of the
+			// power is lost to the wall
+			SoundWall reflector = walls.getWall(wall);
+			double[] direction = reflector.reflect(dx, dy);
+			dx = direction[0];
+			dy = direction[1];
+			this.volumeLostOnCollisions += reflector.getAbsorption();
+			this.lastWall = wall;
+			reflected = true;
+		}
+		
+		setPosition(x, y);
+		if (reflected)
+			this.direction = HelpMath.checkDirection(Math.toDegrees(Math.atan2(-dy, dx)));
+	}
+	
+	private boolean reachEars(List<Ear> ears, double x, double y, double dx, double dy, 
+			double length)
+	{
+		// The particle is a beam that widens as it travels, just like the rays of the
+		// rayCaster
+		double spread = RayCaster.getSpread(SoundSource.degreesForParticle);
+		
+		while (true)
+		{
+			Ear closest = null;
+			double closestDistance = length;
+			for (Ear ear : ears)
+			{
+				if (ear == this.firstEar)
+					continue;
+				
+				double distance = RayCaster.getHitDistance(x, y, dx, dy, this.pixelsTraveled, 
+						spread, ear.getX(), ear.getY(), ear.getRadius());
+				if (distance >= 0 && distance <= closestDistance)
+				{
+					closest = ear;
+					closestDistance = distance;
+				}
+			}
+			
+			if (closest == null)
+				return false;
+			
+			double offset = x + dx * closestDistance - closest.getX();
+			onEarReached(closest, this.pixelsTraveled + closestDistance, 
+					closest.getSide().isShadowed(offset));
+			if (this.dormant)
+				return true;
+		}
+	}
+	
 	private void checkIfShouldDie()
 	{
 		if (this.startVolume - this.volumeLostOnCollisions < Util.MIN_SOUND_VOLUME || 
-				this.pixelsTraveled > MAX_DISTANCE)
+				this.pixelsTraveled >= Util.MAX_SOUND_DISTANCE)
 		{
 			//System.out.println("Particle died without finding an ear");
 			kill();
@@ -0,0 +1,333 @@
+package darkest_3dSound;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import darkest_utility.Util;
+import flux_wav.WavSound;
+import genesis_logic.Actor;
+import omega_world.Area;
+
+/**
+ * SoundScheduler plays wav sounds after a delay. The pending sounds are kept in a hashed 
+ * timer wheel where each slot covers a single step, so scheduling a sound and playing it 
+ * take constant time and the pending sounds don't have to be checked on every step. The 
+ * delays aren't rounded to whole steps. A sound is handed to the voices on the first step 
+ * that reaches its due time, along with how far into the step the due time was. The 
+ * voices start the sound after that part of a step on a clock thread, so every sound is 
+ * heard exactly one step after its due time and the differences between the delays, 
+ * like the time between the ears and the early reflections, stay exact. Sounds without 
+ * a delay go through the same route so that they line up with the delayed ones. Each 
+ * area has its own scheduler, which is informed by the area's actorHandler. The sounds 
+ * are played through the default {@link VoiceManager}, so only the loudest ones are 
+ * heard when there are too many of them.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public class SoundScheduler implements Actor
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private static final int SLOTS = 256;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int NONE = -1;
+	
+	private static final Map<Area, SoundScheduler> SCHEDULERS = 
+			new HashMap<Area, SoundScheduler>();
+	
+	private final Area area;
+	private final VoiceManager voices;
+	private double time;
+	private int[] slotHeads;
+	
+	// The pending sounds are stored in arrays. Each slot is a linked list of indices.
+	private double[] dueTimes;
+	private float[] volumes, pans, priorities;
+	private WavSound[] sounds;
+	private Object[] owners;
+	private int[] next;
+	private int freeHead, pending;
+	private boolean dead;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	private SoundScheduler(Area area, int capacity)
+	{
+		// Initializes attributes
+		this.area = area;
+		this.voices = VoiceManager.getDefault();
+		this.time = 0;
+		this.slotHeads = new int[SLOTS];
+		Arrays.fill(this.slotHeads, NONE);
+		this.dueTimes = new double[0];
+		this.volumes = new float[0];
+		this.pans = new float[0];
+		this.priorities = new float[0];
+		this.sounds = new WavSound[0];
+		this.owners = new Object[0];
+		this.next = new int[0];
+		this.freeHead = NONE;
+		this.pending = 0;
+		this.dead = false;
+		
+		grow(capacity);
+	}
+	
+	
+	// IMPLEMENTED METHODS	------------------------------
+	
+	@Override
+	public void activate()
+	{
+		// Can't be activated or deactivated
+	}
+	
+	@Override
+	public void inactivate()
+	{
+		// Can't be activated or deactivated
+	}
+	
+	@Override
+	public boolean isActive()
+	{
+		return true;
+	}
+	
+	@Override
+	public boolean isDead()
+	{
+		return this.dead;
+	}
+	
+	@Override
+	public void kill()
+	{
+		// The area gets a new scheduler if it is used again
+		synchronized (SCHEDULERS)
+		{
+			if (SCHEDULERS.get(this.area) == this)
+				SCHEDULERS.remove(this.area);
+		}
+		
+		this.dead = true;
+	}
+	
+	@Override
+	public synchronized void act(double steps)
+	{
+		double previousTime = this.time;
+		this.time += steps;
+		
+		if (this.pending == 0)
+		{
+			// The voices that were waiting may get a free slot
+			this.voices.update();
+			return;
+		}
+		
+		// Visits each slot the time passed through. The slot of the previous time is 
+		// visited again since it may contain sounds that were added after the last visit.
+		long firstTick = (long) Math.floor(previousTime);
+		long lastTick = (long) Math.floor(this.time);
+		if (lastTick - firstTick >= SLOTS)
+			lastTick = firstTick + SLOTS - 1;
+		
+		for (long tick = firstTick; tick <= lastTick; tick++)
+		{
+			fireSlot((int) (tick & SLOT_MASK), previousTime);
+		}
+		
+		// The sounds of the step are ranked against each other
+		this.voices.update();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many sounds are waiting to be played
+	 */
+	public synchronized int getPendingCount()
+	{
+		return this.pending;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the scheduler of the given area. A new scheduler is created and added to the 
+	 * area's actorHandler if the area didn't have one yet.
+	 * @param area The area whose scheduler is requested
+	 * @return The sound scheduler of the area
+	 */
+	public static SoundScheduler forArea(Area area)
+	{
+		synchronized (SCHEDULERS)
+		{
+			SoundScheduler scheduler = SCHEDULERS.get(area);
+			if (scheduler == null)
+			{
+				scheduler = new SoundScheduler(area, 64);
+				SCHEDULERS.put(area, scheduler);
+				area.getActorHandler().addActor(scheduler);
+			}
+			
+			return scheduler;
+		}
+	}
+	
+	/**
+	 * Kills the scheduler of the given area. The sounds that were still waiting are not 
+	 * played. This should be called when the area is no longer used.
+	 * @param area The area whose scheduler is removed
+	 */
+	public static void forget(Area area)
+	{
+		SoundScheduler scheduler;
+		synchronized (SCHEDULERS)
+		{
+			scheduler = SCHEDULERS.get(area);
+		}
+		
+		if (scheduler != null)
+			scheduler.kill();
+	}
+	
+	/**
+	 * Plays the sound after the given delay. Like the delayed sounds, the sounds without 
+	 * a delay are handed to the voice manager on the next step.
+	 * @param delaySteps How many steps are waited before the sound is played
+	 * @param sound The sound that will be played
+	 * @param startVolume How loud the sound is at its source (in desibels). The sounds 
+	 * are ranked by the start volume plus the volume adjustment.
+	 * @param volumeAdjustment How much the sound's volume is adjusted (in desibels)
+	 * @param pan How much the sound is panned [-1, 1]
+	 * @param owner The object that scheduled the sound. The owner's sounds can be cancelled 
+	 * with {@link #cancel(Object)}.
+	 */
+	public void schedule(double delaySteps, WavSound sound, int startVolume, 
+			double volumeAdjustment, double pan, Object owner)
+	{
+		synchronized (this)
+		{
+			if (this.freeHead == NONE)
+				grow(this.dueTimes.length * 2);
+			
+			int index = this.freeHead;
+			this.freeHead = this.next[index];
+			
+			this.dueTimes[index] = this.time + Math.max(0, delaySteps);
+			this.sounds[index] = sound;
+			this.volumes[index] = (float) volumeAdjustment;
+			this.pans[index] = (float) pan;
+			this.priorities[index] = (float) (startVolume + volumeAdjustment);
+			this.owners[index] = owner;
+			
+			// Sounds that are further away than a full round are kept in the slot until 
+			// the wheel comes back to them
+			int slot = (int) ((long) Math.floor(this.dueTimes[index]) & SLOT_MASK);
+			this.next[index] = this.slotHeads[slot];
+			this.slotHeads[slot] = index;
+			this.pending ++;
+		}
+	}
+	
+	/**
+	 * Cancels all the pending sounds of the given owner
+	 * @param owner The object whose sounds won't be played
+	 * @return How many sounds were cancelled
+	 */
+	public synchronized int cancel(Object owner)
+	{
+		if (this.pending == 0)
+			return 0;
+		
+		int cancelled = 0;
+		for (int slot = 0; slot < SLOTS; slot++)
+		{
+			int previous = NONE;
+			int index = this.slotHeads[slot];
+			while (index != NONE)
+			{
+				int following = this.next[index];
+				if (this.owners[index] == owner)
+				{
+					unlink(slot, previous, index);
+					cancelled ++;
+				}
+				else
+					previous = index;
+				index = following;
+			}
+		}
+		
+		return cancelled;
+	}
+	
+	private void fireSlot(int slot, double stepStart)
+	{
+		int previous = NONE;
+		int index = this.slotHeads[slot];
+		while (index != NONE)
+		{
+			int following = this.next[index];
+			if (this.dueTimes[index] <= this.time)
+			{
+				WavSound sound = this.sounds[index];
+				float volume = this.volumes[index];
+				float pan = this.pans[index];
+				float priority = this.priorities[index];
+				
+				// The sound is started as far into the next step as its due time was
+				// into this step
+				double offset = Math.max(0, this.dueTimes[index] - stepStart);
+				
+				unlink(slot, previous, index);
+				this.voices.submit(sound, volume, pan, priority, 
+						Util.stepsToSeconds(offset) * 1000);
+			}
+			else
+				previous = index;
+			index = following;
+		}
+	}
+	
+	private void unlink(int slot, int previous, int index)
+	{
+		if (previous == NONE)
+			this.slotHeads[slot] = this.next[index];
+		else
+			this.next[previous] = this.next[index];
+		
+		this.sounds[index] = null;
+		this.owners[index] = null;
+		this.next[index] = this.freeHead;
+		this.freeHead = index;
+		this.pending --;
+	}
+	
+	private void grow(int capacity)
+	{
+		int oldCapacity = this.dueTimes.length;
+		
+		this.dueTimes = Arrays.copyOf(this.dueTimes, capacity);
+		this.volumes = Arrays.copyOf(this.volumes, capacity);
+		this.pans = Arrays.copyOf(this.pans, capacity);
+		this.priorities = Arrays.copyOf(this.priorities, capacity);
+		this.sounds = Arrays.copyOf(this.sounds, capacity);
+		this.owners = Arrays.copyOf(this.owners, capacity);
+		this.next = Arrays.copyOf(this.next, capacity);
+		
+		// The new indices are added to the free list
+		for (int i = capacity - 1; i >= oldCapacity; i--)
+		{
+			this.next[i] = this.freeHead;
+			this.freeHead = i;
+		}
+	}
+}
@@ -2,9 +2,14 @@ package darkest_3dSound;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.sound.sampled.LineUnavailableException;
+
+import darkest_3dSound.SoundMetrics.Metric;
 import flux_wav.WavSound;
-import genesis_logic.ActorHandler;
 import omega_gameplay.HelpMath;
 import omega_world.Area;
 import omega_world.GameObject;
@@ -24,10 +29,15 @@ public class SoundSource extends GameObject implements TimerEventListener
 	private Point2D.Double position;
 	private int fanWidth, defaultSoundVolume;
 	private boolean needsNewEdges, mayContainDuplicates;
-	private ArrayList<SoundEdge> edges;
+	private EdgeBuffer edges;
 	private double direction;
 	private Area area;
 	private WavSound lastSound;
+	private PcmClip lastClip;
+	private PropagationMode propagationMode;
+	private int edgeLayoutSignature;
+	private EdgeSnapshotBuffer snapshots;
+	private SoundScheduler scheduler;
 	
 	/**
 	 * How many degrees each particle covers
@@ -35,6 +45,14 @@ public class SoundSource extends GameObject implements TimerEventListener
 	protected static int degreesForParticle = 10;
 	
 	private static int soundPreparationDuration = 100;
+	private static RayCaster rayCaster = new RayCaster(degreesForParticle, 4);
+	private static EdgeCache edgeCache = new EdgeCache(256, 2, 1);
+	private static EdgeMixer mixer = new EdgeMixer();
+	private static PropagationWorker worker = null;
+	private static LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
+	private static BinauralRenderer binauralRenderer = BinauralRenderer.DEFAULT;
+	private static final Map<Area, List<SoundSource>> SOURCES = 
+			new HashMap<Area, List<SoundSource>>();
 	
 	
 	// CONSTRUCTOR	--------------------------------------
@@ -61,10 +79,17 @@ public class SoundSource extends GameObject implements TimerEventListener
 		this.fanWidth = fanWidthDegrees;
 		this.direction = HelpMath.checkDirection(direction);
 		this.needsNewEdges = true;
-		this.edges = new ArrayList<SoundEdge>();
+		this.edges = new EdgeBuffer();
 		this.defaultSoundVolume = defaultSoundVolume;
 		this.area = area;
 		this.lastSound = null;
+		this.lastClip = null;
+		this.propagationMode = PropagationMode.RAY_CAST;
+		this.edgeLayoutSignature = 0;
+		this.snapshots = new EdgeSnapshotBuffer();
+		this.scheduler = SoundScheduler.forArea(area);
+		
+		addSource(this);
 	}
 	
 	
@@ -74,6 +99,8 @@ public class SoundSource extends GameObject implements TimerEventListener
 	public void kill()
 	{
 		this.edges.clear();
+		this.scheduler.cancel(this);
+		removeSource(this);
 		super.kill();
 	}
 	
@@ -99,8 +126,12 @@ public class SoundSource extends GameObject implements TimerEventListener
 	public void onTimerEvent(int timerid)
 	{
 		// Starts playing a sound after preparation
-		playSoundWithDelay(this.lastSound);
+		if (this.lastSound != null)
+			playSoundWithDelay(this.lastSound);
+		if (this.lastClip != null)
+			playMixedSound(this.lastClip);
 		this.lastSound = null;
+		this.lastClip = null;
 	}
 	
 	
@@ -114,6 +145,15 @@ public class SoundSource extends GameObject implements TimerEventListener
 		return this.position;
 	}
 	
+	/**
+	 * @return The edges the source currently uses. The buffer is changed by the source, 
+	 * so it should only be read from the game thread.
+	 */
+	EdgeBuffer getEdges()
+	{
+		return this.edges;
+	}
+	
 	/**
 	 * Changes the position the sound originates from
 	 * @param newPosition The new position the sound originates from
@@ -124,7 +164,7 @@ public class SoundSource extends GameObject implements TimerEventListener
 			return;
 		
 		this.position = newPosition;
-		this.needsNewEdges = true;
+		invalidateEdges();
 	}
 	
 	/**
@@ -137,7 +177,7 @@ public class SoundSource extends GameObject implements TimerEventListener
 			return;
 		
 		this.direction = newDirection;
-		this.needsNewEdges = true;
+		invalidateEdges();
 	}
 	
 	/**
@@ -149,57 +189,219 @@ public class SoundSource extends GameObject implements TimerEventListener
 		setDirection(this.direction + degrees);
 	}
 	
+	/**
+	 * @return How the source finds the paths its sounds take
+	 */
+	public PropagationMode getPropagationMode()
+	{
+		return this.propagationMode;
+	}
+	
+	/**
+	 * Changes the way the source finds the paths its sounds take. The new mode will be used 
+	 * the next time the source is prepared.
+	 * @param mode How the source finds the paths its sounds take
+	 */
+	public void setPropagationMode(PropagationMode mode)
+	{
+		if (this.propagationMode == mode)
+			return;
+		
+		this.propagationMode = mode;
+		invalidateEdges();
+	}
+	
+	/**
+	 * @return Decides how much work is spent on the edges of the sources
+	 */
+	public static LevelOfDetail getLevelOfDetail()
+	{
+		return levelOfDetail;
+	}
+	
+	/**
+	 * Changes how much work is spent on the edges of the sources. The new level of detail 
+	 * is used the next time the sources are prepared.
+	 * @param detail The new level of detail. Null if the edges should always be fully 
+	 * calculated. The sound particles are never affected.
+	 */
+	public static void setLevelOfDetail(LevelOfDetail detail)
+	{
+		levelOfDetail = detail;
+	}
+	
+	/**
+	 * @return The renderer that combines the edges of the same path into a single voice
+	 */
+	public static BinauralRenderer getBinauralRenderer()
+	{
+		return binauralRenderer;
+	}
+	
+	/**
+	 * Changes how the edges are turned into voices when a sound is played
+	 * @param renderer The renderer that combines the edges of the same path into a single 
+	 * voice. Null if each edge should be played as a separate voice, hard panned to its 
+	 * own side.
+	 */
+	public static void setBinauralRenderer(BinauralRenderer renderer)
+	{
+		binauralRenderer = renderer;
+	}
+	
+	/**
+	 * @return The cache that holds the edges recently calculated by all of the sources
+	 */
+	public static EdgeCache getEdgeCache()
+	{
+		return edgeCache;
+	}
+	
+	/**
+	 * @return The mixer that renders the clips played by all of the sources
+	 */
+	public static EdgeMixer getMixer()
+	{
+		return mixer;
+	}
+	
+	/**
+	 * @return The worker that calculates the edges of the sources using background ray 
+	 * casting
+	 */
+	public static synchronized PropagationWorker getWorker()
+	{
+		if (worker == null)
+			worker = new PropagationWorker(Math.max(1, 
+					Runtime.getRuntime().availableProcessors() - 1), rayCaster, edgeCache);
+		
+		return worker;
+	}
+	
 	
 	// OTHER METHODS	------------------------------------------
 	
+	/**
+	 * Finds all the sources that currently reside in the given area
+	 * @param area The area the sources are searched from
+	 * @return A list containing the sources in the area. Changes made to the list won't 
+	 * affect the sources.
+	 */
+	public static List<SoundSource> getSources(Area area)
+	{
+		synchronized (SOURCES)
+		{
+			List<SoundSource> sources = SOURCES.get(area);
+			if (sources == null)
+				return new ArrayList<SoundSource>();
+			return new ArrayList<SoundSource>(sources);
+		}
+	}
+	
 	/**
 	 * Prepares the source to play a sound. This will allow the sound to be played immediately 
-	 * after playSound is called, unless there are some changes in between, of course.
+	 * after playSound is called, unless there are some changes in between, of course. 
+	 * When ray casting is used, the preparation is finished once the method returns. 
+	 * When background ray casting is used, the preparation is only started.
 	 */
 	public void prepareForSound()
 	{
+		long startTime = System.nanoTime();
+		
+		// The edges need to be recalculated if the ears or the walls have changed
+		PropagationRequest request = null;
+		if (this.propagationMode != PropagationMode.PARTICLE_SIMULATION)
+		{
+			request = createRequest();
+			if (request.getLayoutSignature() != this.edgeLayoutSignature)
+				this.needsNewEdges = true;
+		}
+		
 		// If no preparation is required, no preparation will be get
 		if (!this.needsNewEdges)
 			return;
 		
-		System.out.println("Preparing");
+		if (SoundMetrics.isTraceEnabled())
+			SoundMetrics.trace("Preparing " + this.propagationMode);
 		
-		// Removes the old edges
-		this.edges.clear();
-		
-		// Creates new edges using soundParticles
-		for (double angle = this.direction - this.fanWidth / 2; 
-				angle < this.direction + this.fanWidth / 2; angle += degreesForParticle)
+		// In the background mode, the edges are only requested. They are used once they are 
+		// ready
+		if (this.propagationMode == PropagationMode.BACKGROUND_RAY_CAST)
+			getWorker().submit(request, this.snapshots);
+		// Casts the edges directly if possible
+		else if (request != null)
 		{
-			new SoundParticle((int) getPosition().getX(), (int) getPosition().getY(), 
-					this.defaultSoundVolume, angle, this, this.area);
+			EdgeSnapshot snapshot = null;
+			// The listener field is shared by all the sources that hear the same ears
+			if (this.propagationMode == PropagationMode.LISTENER_FIELD)
+				snapshot = request.solveWithListenerField(rayCaster);
+			// The rays are only cast where there are no suitable probes
+			else if (this.propagationMode == PropagationMode.BAKED_PROBES)
+				snapshot = request.solve(ProbeGrid.forArea(this.area), rayCaster, edgeCache, 
+						this.snapshots.getFront());
+			
+			if (snapshot == null)
+				snapshot = request.solve(rayCaster, edgeCache, this.snapshots.getFront());
+			this.snapshots.publish(snapshot);
+			useSnapshot(snapshot);
+		}
+		// Otherwise creates new edges using soundParticles
+		else
+		{
+			// Removes the old edges
+			this.edges.clear();
+			
+			int particles = 0;
+			for (double angle = this.direction - this.fanWidth / 2; 
+					angle < this.direction + this.fanWidth / 2; angle += degreesForParticle)
+			{
+				SoundParticle.obtain((int) getPosition().getX(), (int) getPosition().getY(), 
+						this.defaultSoundVolume, angle, this, this.area);
+				particles ++;
+			}
+			SoundMetrics.record(Metric.PARTICLES_SENT, particles);
 		}
 		
+		if (request != null)
+			this.edgeLayoutSignature = request.getLayoutSignature();
 		this.needsNewEdges = false;
+		
+		SoundMetrics.recordTime(Metric.PREPARE_TIME, startTime);
 	}
 	
 	/**
-	 * Plays a wavSound from the source. There may be a slight delay if the source hasn't 
-	 * been allowed to prepare for the sound beforehand.
+	 * Plays a wavSound from the source. When particle simulation is used, there may be a 
+	 * slight delay if the source hasn't been allowed to prepare for the sound beforehand.
 	 * @param sound The sound that will be played.
 	 */
 	public void playSound(WavSound sound)
 	{
-		// If the source is not ready yet, has to take some time to prepare
-		if (this.needsNewEdges)
-		{
+		if (prepareForPlaying())
+			playSoundWithDelay(sound);
+		// If the particles are not ready yet, the sound is played after the preparation
+		else
 			this.lastSound = sound;
-			prepareForSound();
-			new SingularTimer(this, soundPreparationDuration, 0, this.area.getActorHandler());
-		}
-		
-		// Otherwise playes the sound after a short delay
+	}
+	
+	/**
+	 * Plays a clip from the source. Unlike {@link #playSound(WavSound)}, the clip is mixed 
+	 * through all of the edges into a single stereo stream so only a single audio line is 
+	 * used. When particle simulation is used, there may be a slight delay if the source 
+	 * hasn't been allowed to prepare for the sound beforehand.
+	 * @param clip The clip that will be played
+	 */
+	public void playSound(PcmClip clip)
+	{
+		if (prepareForPlaying())
+			playMixedSound(clip);
+		// If the particles are not ready yet, the sound is played after the preparation
 		else
-			playSoundWithDelay(sound);
+			this.lastClip = clip;
 	}
 	
 	/**
-	 * Adds a new edge to the list of used edges (only valid edges are accepted)
+	 * Adds a new edge to the list of used edges (only valid edges are accepted). The 
+	 * edge is copied into the source's edge buffer and released.
 	 * @param edge The edge that will be added
 	 */
 	protected void addEdge(SoundEdge edge)
@@ -208,122 +410,181 @@ public class SoundSource extends GameObject implements TimerEventListener
 		{
 			this.edges.add(edge);
 			this.mayContainDuplicates = true;
+			SoundMetrics.record(Metric.EDGES_PRODUCED, 1);
 		}
+		edge.release();
 	}
 	
-	private void playSoundWithDelay(WavSound sound)
+	private boolean prepareForPlaying()
 	{
-		// Removes duplicates if necessary
-		removeDuplicateEdges();
+		// Background propagation uses the newest edges that are ready
+		if (this.propagationMode == PropagationMode.BACKGROUND_RAY_CAST)
+		{
+			prepareForSound();
+			
+			EdgeSnapshot newest = this.snapshots.getFront();
+			// The first edges have to be calculated right away
+			if (newest == null)
+			{
+				newest = createRequest().solve(rayCaster, edgeCache, null);
+				this.snapshots.publish(newest);
+			}
+			
+			useSnapshot(newest);
+			return true;
+		}
 		
-		System.out.println("Plays " + this.edges.size() + " sounds");
-		for (SoundEdge edge : this.edges)
+		// If the particles are not ready yet, has to take some time to prepare
+		if (this.propagationMode == PropagationMode.PARTICLE_SIMULATION && 
+				this.needsNewEdges)
 		{
-			// TODO: The delay is nonexistant
-			new DelaySoundPlayer((int) (edge.getDelaySteps() * 100), this.area.getActorHandler(), 
-					sound, edge.getVolumeAdjustment(), edge.getTarget().getSide().getPan());
+			prepareForSound();
+			new SingularTimer(this, soundPreparationDuration, 0, this.area.getActorHandler());
+			return false;
 		}
+		
+		prepareForSound();
+		return true;
 	}
 	
-	private void removeDuplicateEdges()
+	private void invalidateEdges()
 	{
-		if (!this.mayContainDuplicates)
-			return;
-			
-		ArrayList<SoundEdge> duplicates = new ArrayList<SoundEdge>();
-		
-		for (int i = 0; i < this.edges.size(); i++)
-		{
-			SoundEdge possiblyDuplicate = this.edges.get(i);
-			for (int comparedIndex = 0; comparedIndex < i; comparedIndex++)
-			{
-				if (possiblyDuplicate.isDuplicateWith(this.edges.get(comparedIndex)))
-				{
-					duplicates.add(possiblyDuplicate);
-					break;
-				}
-			}
-		}
+		this.needsNewEdges = true;
 		
-		System.out.println("Found " + duplicates.size() + " duplicates");
-		this.edges.removeAll(duplicates);
-		this.mayContainDuplicates = false;
+		// Background propagation starts right away
+		if (this.propagationMode == PropagationMode.BACKGROUND_RAY_CAST)
+			prepareForSound();
 	}
 	
+	private PropagationRequest createRequest()
+	{
+		return new PropagationRequest(getPosition(), this.direction, this.fanWidth, 
+				this.defaultSoundVolume, EarLayout.capture(this.area), 
+				SoundGeometry.forArea(this.area).getGrid(), levelOfDetail);
+	}
 	
-	// SUBCLASSES	----------------------------------------
+	private void useSnapshot(EdgeSnapshot snapshot)
+	{
+		// The snapshot edges never contain duplicates
+		this.edges.copyFrom(snapshot.getBuffer());
+		this.mayContainDuplicates = false;
+	}
 	
-	private class DelaySoundPlayer implements TimerEventListener
+	private void playSoundWithDelay(WavSound sound)
 	{
-		// ATTRIBUTES	------------------------------------
-		
-		private WavSound sound;
-		private double volumeAdjustment, pan;
-		
-		
-		// CONSTRUCTOR	------------------------------------
+		// Removes duplicates if necessary
+		removeDuplicateEdges();
 		
-		/**
-		 * Creates a new soundPlayer that will play the sound after a slight delay
-		 * 
-		 * @param delay How many steps are waited before the sound is played
-		 * @param actorhandler The actorHandler that will inform the object about 
-		 * passing of time
-		 * @param sound The sound that will be played
-		 * @param volumeAdjustment How much the sound's volume is adjusted
-		 * @param pan How much the sound is panned
-		 */
-		public DelaySoundPlayer(int delay, ActorHandler actorhandler, WavSound sound, 
-				double volumeAdjustment, double pan)
+		BinauralRenderer renderer = binauralRenderer;
+		if (renderer != null)
 		{
-			// Initializes methods
-			this.sound = sound;
-			this.volumeAdjustment = volumeAdjustment;
-			this.pan = pan;
-			
-			new SingularTimer(this, delay, 0, actorhandler);
+			int voices = renderer.schedule(this.edges, sound, this.defaultSoundVolume, 
+					this.scheduler, this);
+			if (SoundMetrics.isTraceEnabled())
+				SoundMetrics.trace("Plays " + voices + " sounds");
+			return;
 		}
-
-		
-		// IMPLEMENTED METHODS	------------------------------
 		
-		@Override
-		public void onTimerEvent(int timerid)
-		{
-			//System.out.println("Sound playing");
-			
-			// Plays the sound
-			this.sound.play((float) this.volumeAdjustment, (float) this.pan, null);
-		}
-
-		@Override
-		public void activate()
+		if (SoundMetrics.isTraceEnabled())
+			SoundMetrics.trace("Plays " + this.edges.size() + " sounds");
+		for (int i = 0; i < this.edges.size(); i++)
 		{
-			// Can't be activated
+			this.scheduler.schedule(this.edges.getDelaySteps(i), sound, 
+					this.defaultSoundVolume, this.edges.getVolumeAdjustment(i), 
+					this.edges.getSide(i).getPan(), this);
 		}
-
-		@Override
-		public void inactivate()
+	}
+	
+	private void playMixedSound(PcmClip clip)
+	{
+		// Removes duplicates if necessary
+		removeDuplicateEdges();
+		
+		try
 		{
-			// Can't be deactivated
+			mixer.play(clip, this.edges);
 		}
-
-		@Override
-		public boolean isActive()
+		catch (LineUnavailableException e)
 		{
-			return true;
+			System.err.println("Couldn't open a line for playing a sound");
+			e.printStackTrace();
 		}
-
-		@Override
-		public boolean isDead()
+	}
+	
+	private void removeDuplicateEdges()
+	{
+		if (!this.mayContainDuplicates)
+			return;
+		
+		int merged = this.edges.mergeDuplicates(this.defaultSoundVolume);
+		SoundMetrics.record(Metric.DUPLICATES_MERGED, merged);
+		
+		if (SoundMetrics.isTraceEnabled())
+			SoundMetrics.trace("Merged " + merged + " duplicates");
+		this.mayContainDuplicates = false;
+	}
+	
+	private static void addSource(SoundSource source)
+	{
+		synchronized (SOURCES)
 		{
-			return SoundSource.this.isDead();
+			List<SoundSource> sources = SOURCES.get(source.area);
+			if (sources == null)
+			{
+				sources = new ArrayList<SoundSource>();
+				SOURCES.put(source.area, sources);
+			}
+			sources.add(source);
 		}
-
-		@Override
-		public void kill()
+	}
+	
+	private static void removeSource(SoundSource source)
+	{
+		synchronized (SOURCES)
 		{
-			// Can't be killed by itself
+			List<SoundSource> sources = SOURCES.get(source.area);
+			if (sources == null)
+				return;
+			
+			sources.remove(source);
+			if (sources.isEmpty())
+				SOURCES.remove(source.area);
 		}
 	}
+	
+	
+	// ENUMERATIONS	--------------------------------------
+	
+	/**
+	 * PropagationMode tells how a soundSource finds the paths from itself to the ears
+	 */
+	public enum PropagationMode
+	{
+		/**
+		 * The paths are calculated immediately by casting rays towards the ears
+		 */
+		RAY_CAST, 
+		/**
+		 * The paths are calculated by casting rays in a background thread. The sounds are 
+		 * played immediately using the newest paths that are ready.
+		 */
+		BACKGROUND_RAY_CAST, 
+		/**
+		 * The paths are looked up from beams that are cast from the ears. The beams are 
+		 * shared by all the sources, so this is the fastest mode when there are many 
+		 * sources and only a few ears.
+		 */
+		LISTENER_FIELD, 
+		/**
+		 * The paths are read from the probes baked for the area (see 
+		 * {@link ProbeGrid#forArea(Area)}). The rays are cast normally where there are no 
+		 * probes.
+		 */
+		BAKED_PROBES, 
+		/**
+		 * The paths are found by SoundParticles travelling around the area. This takes 
+		 * some time.
+		 */
+		PARTICLE_SIMULATION;
+	}
 }
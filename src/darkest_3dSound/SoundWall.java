@@ -0,0 +1,150 @@
+package darkest_3dSound;
+
+/**
+ * SoundWalls are line segments that reflect sound. Some of the sound's volume is absorbed 
+ * by the wall on each reflection.
+ * 
+ * @author Mikko Hilpinen
+ * @since 24.10.2014
+ */
+public class SoundWall
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	private final double startX, startY, endX, endY, normalX, normalY, absorption;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new wall between the two points
+	 * 
+	 * @param startX The x-coordinate of the wall's start point (in pixels)
+	 * @param startY The y-coordinate of the wall's start point (in pixels)
+	 * @param endX The x-coordinate of the wall's end point (in pixels)
+	 * @param endY The y-coordinate of the wall's end point (in pixels)
+	 * @param absorption How many desibels of volume the wall absorbs on each reflection
+	 */
+	public SoundWall(double startX, double startY, double endX, double endY, 
+			double absorption)
+	{
+		// Initializes attributes
+		this.startX = startX;
+		this.startY = startY;
+		this.endX = endX;
+		this.endY = endY;
+		this.absorption = absorption;
+		
+		double length = Math.sqrt((endX - startX) * (endX - startX) + 
+				(endY - startY) * (endY - startY));
+		if (length == 0)
+			throw new IllegalArgumentException("A sound wall must have a length");
+		
+		this.normalX = -(endY - startY) / length;
+		this.normalY = (endX - startX) / length;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return The x-coordinate of the wall's start point (in pixels)
+	 */
+	public double getStartX()
+	{
+		return this.startX;
+	}
+	
+	/**
+	 * @return The y-coordinate of the wall's start point (in pixels)
+	 */
+	public double getStartY()
+	{
+		return this.startY;
+	}
+	
+	/**
+	 * @return The x-coordinate of the wall's end point (in pixels)
+	 */
+	public double getEndX()
+	{
+		return this.endX;
+	}
+	
+	/**
+	 * @return The y-coordinate of the wall's end point (in pixels)
+	 */
+	public double getEndY()
+	{
+		return this.endY;
+	}
+	
+	/**
+	 * @return How many desibels of volume the wall absorbs on each reflection
+	 */
+	public double getAbsorption()
+	{
+		return this.absorption;
+	}
+	
+	/**
+	 * @return A hash of the wall's end points and absorption. Two walls with the same 
+	 * signature are very likely identical.
+	 */
+	public int getSignature()
+	{
+		int hash = 17;
+		hash = 31 * hash + Double.valueOf(this.startX).hashCode();
+		hash = 31 * hash + Double.valueOf(this.startY).hashCode();
+		hash = 31 * hash + Double.valueOf(this.endX).hashCode();
+		hash = 31 * hash + Double.valueOf(this.endY).hashCode();
+		hash = 31 * hash + Double.valueOf(this.absorption).hashCode();
+		return hash;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Calculates how far a ray travels before it hits the wall
+	 * 
+	 * @param x The x-coordinate where the ray starts from
+	 * @param y The y-coordinate where the ray starts from
+	 * @param dx The x-component of the ray's unit direction vector
+	 * @param dy The y-component of the ray's unit direction vector
+	 * @return How many pixels the ray travels before hitting the wall. -1 if the ray never 
+	 * hits the wall.
+	 */
+	public double getHitDistance(double x, double y, double dx, double dy)
+	{
+		double wallX = this.endX - this.startX;
+		double wallY = this.endY - this.startY;
+		
+		// Parallel rays never hit the wall
+		double denominator = dx * wallY - dy * wallX;
+		if (denominator == 0)
+			return -1;
+		
+		double toStartX = this.startX - x;
+		double toStartY = this.startY - y;
+		double t = (toStartX * wallY - toStartY * wallX) / denominator;
+		double s = (toStartX * dy - toStartY * dx) / denominator;
+		
+		if (t < 0 || s < 0 || s > 1)
+			return -1;
+		return t;
+	}
+	
+	/**
+	 * Calculates the direction of a ray after it has been reflected from the wall
+	 * 
+	 * @param dx The x-component of the ray's unit direction vector
+	 * @param dy The y-component of the ray's unit direction vector
+	 * @return The reflected unit direction vector {x, y}
+	 */
+	public double[] reflect(double dx, double dy)
+	{
+		double dot = dx * this.normalX + dy * this.normalY;
+		return new double[] {dx - 2 * dot * this.normalX, dy - 2 * dot * this.normalY};
+	}
+}
@@ -0,0 +1,336 @@
+package darkest_3dSound;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import darkest_3dSound.SoundMetrics.Metric;
+import flux_wav.WavSound;
+
+/**
+ * VoiceManager limits how many wav sounds can play at the same time. Each played sound 
+ * is a voice that holds a slot for the voice length. When all the slots are taken, the 
+ * new voices become virtual: they are kept track of but not heard. Whenever slots free 
+ * up, the loudest virtual voices are promoted and played, as long as they haven't been 
+ * waiting for too long. The voices are ranked by how loud they are heard, which is the 
+ * volume of their source plus the volume adjustment of their path. Since a playing wav 
+ * sound can't be stopped or sought, the voices that are already playing are never 
+ * replaced and promoted voices start from the beginning.
+ * <p>
+ * A late voice would ruin the timing of the echoes, so the promotion delay is meant to 
+ * be much shorter than the voice length. The voices submitted during the same step are 
+ * still ranked against each other, but a voice that doesn't get a slot on its step is 
+ * only played if a slot happens to free up within the promotion delay. With the 
+ * default values, the virtual voices are thus mostly dropped rather than delayed.
+ * <p>
+ * A voice may also be submitted with a short delay. The voice is ranked right away, but 
+ * when it gets a slot, it is started by a clock thread after the delay. This way the 
+ * sounds can start between the game steps.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class VoiceManager
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * How many voices the default manager plays at the same time
+	 */
+	public static final int DEFAULT_MAX_VOICES = 32;
+	/**
+	 * How long the voices of the default manager are expected to play (in milliseconds)
+	 */
+	public static final long DEFAULT_VOICE_LENGTH = 1000;
+	/**
+	 * How long a virtual voice of the default manager can wait before it can no longer be 
+	 * promoted (in milliseconds). This is about one and a half steps, so a voice that 
+	 * doesn't get a slot is dropped unless a slot frees up during the next step.
+	 */
+	public static final long DEFAULT_MAX_PROMOTION_DELAY = 50;
+	
+	// Delays shorter than this are not worth handing to the clock thread
+	private static final long MIN_CLOCK_DELAY = 500000;
+	
+	private static VoiceManager defaultManager = null;
+	
+	private final int maxVoices;
+	private final long voiceLength, maxPromotionDelay;
+	
+	private long[] activeEnds;
+	private int activeCount, peakCount;
+	
+	// The virtual voices are stored in arrays. The order of the voices doesn't matter.
+	private WavSound[] sounds;
+	private float[] volumes, pans, priorities;
+	private long[] startTimes;
+	private int virtualCount;
+	private ScheduledExecutorService clock;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new voice manager
+	 * @param maxVoices How many voices can play at the same time (1, ...)
+	 * @param voiceLength How long each voice is expected to play (in milliseconds)
+	 * @param maxPromotionDelay How long a virtual voice can wait for a free slot before it 
+	 * is no longer worth playing (in milliseconds)
+	 */
+	public VoiceManager(int maxVoices, long voiceLength, long maxPromotionDelay)
+	{
+		if (maxVoices < 1)
+			throw new IllegalArgumentException("There must be at least one voice");
+		
+		// Initializes attributes
+		this.maxVoices = maxVoices;
+		this.voiceLength = voiceLength;
+		this.maxPromotionDelay = maxPromotionDelay;
+		this.activeEnds = new long[maxVoices];
+		this.activeCount = 0;
+		this.peakCount = 0;
+		this.sounds = new WavSound[maxVoices];
+		this.volumes = new float[maxVoices];
+		this.pans = new float[maxVoices];
+		this.priorities = new float[maxVoices];
+		this.startTimes = new long[maxVoices];
+		this.virtualCount = 0;
+		this.clock = null;
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many voices can play at the same time
+	 */
+	public int getMaxVoices()
+	{
+		return this.maxVoices;
+	}
+	
+	/**
+	 * @return How many voices are currently playing
+	 */
+	public synchronized int getActiveCount()
+	{
+		return this.activeCount;
+	}
+	
+	/**
+	 * @return How many voices are currently waiting for a free slot
+	 */
+	public synchronized int getVirtualCount()
+	{
+		return this.virtualCount;
+	}
+	
+	/**
+	 * @return How many voices have been playing at the same time at most
+	 */
+	public synchronized int getPeakCount()
+	{
+		return this.peakCount;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * @return The manager shared by all the sound sources. The manager is created on the 
+	 * first call.
+	 */
+	public static synchronized VoiceManager getDefault()
+	{
+		if (defaultManager == null)
+			defaultManager = new VoiceManager(DEFAULT_MAX_VOICES, DEFAULT_VOICE_LENGTH, 
+					DEFAULT_MAX_PROMOTION_DELAY);
+		
+		return defaultManager;
+	}
+	
+	/**
+	 * Adds a new voice. The voice is played when the loudest voices have been given 
+	 * slots. Until then, the voice is virtual. Several voices should be submitted 
+	 * before calling {@link #update()} so that they can be ranked against each other.
+	 * @param sound The sound that will be played
+	 * @param volumeAdjustment How much the sound's volume is adjusted (in desibels)
+	 * @param pan How much the sound is panned [-1, 1]
+	 * @param priority How loud the voice is heard (in desibels), usually the volume of 
+	 * the source plus the volume adjustment. The voices are ranked by this value.
+	 */
+	public void submit(WavSound sound, double volumeAdjustment, double pan, 
+			double priority)
+	{
+		submit(sound, volumeAdjustment, pan, priority, 0);
+	}
+	
+	/**
+	 * Adds a new voice that starts after a short delay. The voice is ranked like any 
+	 * other voice, but once it gets a slot, it is started by a clock thread when the 
+	 * delay has passed.
+	 * @param sound The sound that will be played
+	 * @param volumeAdjustment How much the sound's volume is adjusted (in desibels)
+	 * @param pan How much the sound is panned [-1, 1]
+	 * @param priority How loud the voice is heard (in desibels). The voices are ranked by 
+	 * this value.
+	 * @param delay How long the voice waits before it starts (in milliseconds). Should be 
+	 * shorter than the promotion delay.
+	 */
+	public synchronized void submit(WavSound sound, double volumeAdjustment, double pan, 
+			double priority, double delay)
+	{
+		if (this.virtualCount == this.sounds.length)
+			grow(this.sounds.length * 2);
+		
+		this.sounds[this.virtualCount] = sound;
+		this.volumes[this.virtualCount] = (float) volumeAdjustment;
+		this.pans[this.virtualCount] = (float) pan;
+		this.priorities[this.virtualCount] = (float) priority;
+		this.startTimes[this.virtualCount] = System.nanoTime() + (long) (delay * 1000000);
+		this.virtualCount ++;
+	}
+	
+	/**
+	 * Frees the slots of the voices that have ended and plays the loudest virtual voices 
+	 * on the free slots. The virtual voices that have waited for too long are forgotten.
+	 */
+	public synchronized void update()
+	{
+		long now = System.nanoTime();
+		
+		// Frees the slots of the voices that have ended
+		for (int i = this.activeCount - 1; i >= 0; i--)
+		{
+			if (this.activeEnds[i] <= now)
+				this.activeEnds[i] = this.activeEnds[-- this.activeCount];
+		}
+		
+		// Forgets the voices that have waited too long
+		long oldestStart = now - this.maxPromotionDelay * 1000000;
+		int dropped = 0;
+		for (int i = this.virtualCount - 1; i >= 0; i--)
+		{
+			if (this.startTimes[i] < oldestStart)
+			{
+				removeVirtual(i);
+				dropped ++;
+			}
+		}
+		if (dropped > 0)
+			SoundMetrics.record(Metric.VOICES_CULLED, dropped);
+		
+		// Promotes the loudest voices
+		int started = 0;
+		while (this.activeCount < this.maxVoices && this.virtualCount > 0)
+		{
+			int loudest = 0;
+			for (int i = 1; i < this.virtualCount; i++)
+			{
+				if (this.priorities[i] > this.priorities[loudest])
+					loudest = i;
+			}
+			
+			// The voices that should start later are started by the clock
+			long startTime = Math.max(now, this.startTimes[loudest]);
+			if (startTime - now < MIN_CLOCK_DELAY)
+				this.sounds[loudest].play(this.volumes[loudest], this.pans[loudest], null);
+			else
+				getClock().schedule(new DelayedVoice(this.sounds[loudest], 
+						this.volumes[loudest], this.pans[loudest]), startTime - now, 
+						TimeUnit.NANOSECONDS);
+			this.activeEnds[this.activeCount ++] = startTime + this.voiceLength * 1000000;
+			removeVirtual(loudest);
+			started ++;
+		}
+		
+		if (started > 0)
+		{
+			SoundMetrics.record(Metric.VOICES_STARTED, started);
+			if (this.activeCount > this.peakCount)
+				this.peakCount = this.activeCount;
+		}
+	}
+	
+	/**
+	 * Forgets all the virtual voices and resets the peak voice count. The voices that are 
+	 * already playing keep their slots.
+	 */
+	public synchronized void reset()
+	{
+		Arrays.fill(this.sounds, 0, this.virtualCount, null);
+		this.virtualCount = 0;
+		this.peakCount = this.activeCount;
+	}
+	
+	private void removeVirtual(int index)
+	{
+		int last = -- this.virtualCount;
+		this.sounds[index] = this.sounds[last];
+		this.volumes[index] = this.volumes[last];
+		this.pans[index] = this.pans[last];
+		this.priorities[index] = this.priorities[last];
+		this.startTimes[index] = this.startTimes[last];
+		this.sounds[last] = null;
+	}
+	
+	private void grow(int capacity)
+	{
+		this.sounds = Arrays.copyOf(this.sounds, capacity);
+		this.volumes = Arrays.copyOf(this.volumes, capacity);
+		this.pans = Arrays.copyOf(this.pans, capacity);
+		this.priorities = Arrays.copyOf(this.priorities, capacity);
+		this.startTimes = Arrays.copyOf(this.startTimes, capacity);
+	}
+	
+	private ScheduledExecutorService getClock()
+	{
+		if (this.clock == null)
+			this.clock = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "Sound clock");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MAX_PRIORITY);
+					return thread;
+				}
+			});
+		
+		return this.clock;
+	}
+	
+	
+	// SUBCLASSES	--------------------------------------
+	
+	private static class DelayedVoice implements Runnable
+	{
+		// ATTRIBUTES	----------------------------------
+		
+		private final WavSound sound;
+		private final float volume, pan;
+		
+		
+		// CONSTRUCTOR	----------------------------------
+		
+		public DelayedVoice(WavSound sound, float volume, float pan)
+		{
+			// Initializes attributes
+			this.sound = sound;
+			this.volume = volume;
+			this.pan = pan;
+		}
+		
+		
+		// IMPLEMENTED METHODS	--------------------------
+		
+		@Override
+		public void run()
+		{
+			this.sound.play(this.volume, this.pan, null);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package darkest_3dSound;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WallGrid is an immutable uniform grid over a set of sound walls. A ray only has to be 
+ * tested against the walls in the cells it passes through, so the cost of tracing a ray 
+ * doesn't grow with the number of walls in the area.
+ * 
+ * @author Mikko Hilpinen
+ * @since 24.10.2014
+ */
+public class WallGrid
+{
+	// ATTRIBUTES	--------------------------------------
+	
+	/**
+	 * A grid that doesn't contain any walls
+	 */
+	public static final WallGrid EMPTY = new WallGrid(new ArrayList<SoundWall>(), 1);
+	
+	private final SoundWall[] walls;
+	private final int[][] cells;
+	private final double minX, minY, cellSize;
+	private final int columns, rows, signature;
+	
+	
+	// CONSTRUCTOR	--------------------------------------
+	
+	/**
+	 * Creates a new grid over the given walls
+	 * 
+	 * @param walls The walls the grid holds
+	 * @param cellSize How wide and high each cell in the grid is (in pixels)
+	 */
+	public WallGrid(List<SoundWall> walls, double cellSize)
+	{
+		// Initializes attributes
+		this.walls = walls.toArray(new SoundWall[walls.size()]);
+		this.cellSize = cellSize;
+		
+		// The grid covers all of the walls
+		double minX = 0, minY = 0, maxX = 0, maxY = 0;
+		for (int i = 0; i < this.walls.length; i++)
+		{
+			SoundWall wall = this.walls[i];
+			double left = Math.min(wall.getStartX(), wall.getEndX());
+			double top = Math.min(wall.getStartY(), wall.getEndY());
+			double right = Math.max(wall.getStartX(), wall.getEndX());
+			double bottom = Math.max(wall.getStartY(), wall.getEndY());
+			
+			if (i == 0 || left < minX)
+				minX = left;
+			if (i == 0 || top < minY)
+				minY = top;
+			if (i == 0 || right > maxX)
+				maxX = right;
+			if (i == 0 || bottom > maxY)
+				maxY = bottom;
+		}
+		
+		this.minX = minX;
+		this.minY = minY;
+		this.columns = (int) Math.floor((maxX - minX) / cellSize) + 1;
+		this.rows = (int) Math.floor((maxY - minY) / cellSize) + 1;
+		this.cells = createCells();
+		this.signature = calculateSignature();
+	}
+	
+	
+	// GETTERS & SETTERS	------------------------------
+	
+	/**
+	 * @return How many walls there are in the grid
+	 */
+	public int size()
+	{
+		return this.walls.length;
+	}
+	
+	/**
+	 * @return Are there no walls in the grid
+	 */
+	public boolean isEmpty()
+	{
+		return this.walls.length == 0;
+	}
+	
+	/**
+	 * @param index The index of the wall
+	 * @return The wall at the given index
+	 */
+	public SoundWall getWall(int index)
+	{
+		return this.walls[index];
+	}
+	
+	/**
+	 * @return A hash of the walls in the grid. Two grids with the same signature are very 
+	 * likely identical.
+	 */
+	public int getSignature()
+	{
+		return this.signature;
+	}
+	
+	
+	// OTHER METHODS	----------------------------------
+	
+	/**
+	 * Finds the first wall the given ray hits. The cells are visited in the order the ray 
+	 * passes through them and the search ends at the first cell that contains a hit.
+	 * 
+	 * @param x The x-coordinate where the ray starts from
+	 * @param y The y-coordinate where the ray starts from
+	 * @param dx The x-component of the ray's unit direction vector
+	 * @param dy The y-component of the ray's unit direction vector
+	 * @param maxDistance How far (in pixels) the ray travels at maximum
+	 * @param ignoredWall The index of a wall that is never hit, like the wall the ray was 
+	 * just reflected from. -1 if all walls can be hit.
+	 * @return The index of the first wall the ray hits. -1 if the ray doesn't hit any wall.
+	 */
+	public int findFirstHit(double x, double y, double dx, double dy, double maxDistance, 
+			int ignoredWall)
+	{
+		if (isEmpty())
+			return -1;
+		
+		// Finds the part of the ray that is inside the grid
+		double maxX = this.minX + this.columns * this.cellSize;
+		double maxY = this.minY + this.rows * this.cellSize;
+		double enter = 0, exit = maxDistance;
+		
+		if (dx == 0)
+		{
+			if (x < this.minX || x > maxX)
+				return -1;
+		}
+		else
+		{
+			double first = (this.minX - x) / dx;
+			double second = (maxX - x) / dx;
+			enter = Math.max(enter, Math.min(first, second));
+			exit = Math.min(exit, Math.max(first, second));
+		}
+		if (dy == 0)
+		{
+			if (y < this.minY || y > maxY)
+				return -1;
+		}
+		else
+		{
+			double first = (this.minY - y) / dy;
+			double second = (maxY - y) / dy;
+			enter = Math.max(enter, Math.min(first, second));
+			exit = Math.min(exit, Math.max(first, second));
+		}
+		
+		if (enter > exit)
+			return -1;
+		
+		// Walks through the cells along the ray
+		int column = clamp((int) Math.floor((x + dx * enter - this.minX) / this.cellSize), 
+				this.columns);
+		int row = clamp((int) Math.floor((y + dy * enter - this.minY) / this.cellSize), 
+				this.rows);
+		
+		int columnStep = dx > 0 ? 1 : -1;
+		int rowStep = dy > 0 ? 1 : -1;
+		double nextColumn = getNextBoundary(x, dx, this.minX, column);
+		double nextRow = getNextBoundary(y, dy, this.minY, row);
+		double columnDelta = dx == 0 ? Double.POSITIVE_INFINITY : 
+				this.cellSize / Math.abs(dx);
+		double rowDelta = dy == 0 ? Double.POSITIVE_INFINITY : this.cellSize / Math.abs(dy);
+		
+		while (true)
+		{
+			double cellExit = Math.min(nextColumn, nextRow);
+			
+			// Only the hits inside the current cell are accepted. Hits further away may be
+			// preceded by a hit in the next cells
+			int closestWall = -1;
+			double closestDistance = Math.min(cellExit, exit);
+			for (int index : this.cells[row * this.columns + column])
+			{
+				if (index == ignoredWall)
+					continue;
+				
+				double distance = this.walls[index].getHitDistance(x, y, dx, dy);
+				if (distance >= 0 && distance <= closestDistance)
+				{
+					closestWall = index;
+					closestDistance = distance;
+				}
+			}
+			
+			if (closestWall >= 0 || cellExit >= exit)
+				return closestWall;
+			
+			// Moves to the next cell
+			if (nextColumn < nextRow)
+			{
+				column += columnStep;
+				nextColumn += columnDelta;
+			}
+			else
+			{
+				row += rowStep;
+				nextRow += rowDelta;
+			}
+			
+			if (column < 0 || column >= this.columns || row < 0 || row >= this.rows)
+				return -1;
+		}
+	}
+	
+	private double getNextBoundary(double start, double direction, double min, int cell)
+	{
+		if (direction > 0)
+			return (min + (cell + 1) * this.cellSize - start) / direction;
+		else if (direction < 0)
+			return (min + cell * this.cellSize - start) / direction;
+		else
+			return Double.POSITIVE_INFINITY;
+	}
+	
+	private int[][] createCells()
+	{
+		ArrayList<List<Integer>> contents = new ArrayList<List<Integer>>( 
+				this.columns * this.rows);
+		for (int i = 0; i < this.columns * this.rows; i++)
+		{
+			contents.add(new ArrayList<Integer>());
+		}
+		
+		// Each wall is added to every cell it passes through
+		for (int i = 0; i < this.walls.length; i++)
+		{
+			SoundWall wall = this.walls[i];
+			int firstColumn = getColumn(Math.min(wall.getStartX(), wall.getEndX()));
+			int lastColumn = getColumn(Math.max(wall.getStartX(), wall.getEndX()));
+			int firstRow = getRow(Math.min(wall.getStartY(), wall.getEndY()));
+			int lastRow = getRow(Math.max(wall.getStartY(), wall.getEndY()));
+			
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				for (int column = firstColumn; column <= lastColumn; column++)
+				{
+					if (crossesCell(wall, column, row))
+						contents.get(row * this.columns + column).add(i);
+				}
+			}
+		}
+		
+		int[][] cells = new int[contents.size()][];
+		for (int i = 0; i < cells.length; i++)
+		{
+			List<Integer> indices = contents.get(i);
+			cells[i] = new int[indices.size()];
+			for (int j = 0; j < indices.size(); j++)
+			{
+				cells[i][j] = indices.get(j);
+			}
+		}
+		
+		return cells;
+	}
+	
+	private boolean crossesCell(SoundWall wall, int column, int row)
+	{
+		// The wall's bounds overlap the cell, so the wall crosses the cell unless all the
+		// corners of the cell are on the same side of the wall
+		double wallX = wall.getEndX() - wall.getStartX();
+		double wallY = wall.getEndY() - wall.getStartY();
+		boolean positive = false, negative = false;
+		
+		for (int corner = 0; corner < 4; corner++)
+		{
+			double cornerX = this.minX + (column + corner % 2) * this.cellSize;
+			double cornerY = this.minY + (row + corner / 2) * this.cellSize;
+			double side = wallX * (cornerY - wall.getStartY()) - 
+					wallY * (cornerX - wall.getStartX());
+			
+			if (side >= 0)
+				positive = true;
+			if (side <= 0)
+				negative = true;
+		}
+		
+		return positive && negative;
+	}
+	
+	private int getColumn(double x)
+	{
+		return clamp((int) Math.floor((x - this.minX) / this.cellSize), this.columns);
+	}
+	
+	private int getRow(double y)
+	{
+		return clamp((int) Math.floor((y - this.minY) / this.cellSize), this.rows);
+	}
+	
+	private static int clamp(int cell, int cellCount)
+	{
+		return Math.max(0, Math.min(cellCount - 1, cell));
+	}
+	
+	private int calculateSignature()
+	{
+		int hash = 17;
+		for (SoundWall wall : this.walls)
+		{
+			hash = 31 * hash + wall.getSignature();
+		}
+		
+		return hash;
+	}
+}
@@ -0,0 +1,91 @@
+package darkest_test;
+
+import darkest_utility.AttenuationTable;
+import darkest_utility.Util;
+
+/**
+ * AttenuationTableTest checks that the attenuation tables stay within their maximum error 
+ * from the formulas they replace. The values are compared at evenly spaced points that 
+ * fall between the table entries as well as on them. The test throws an exception if any 
+ * value differs too much.
+ * 
+ * @author Mikko Hilpinen
+ * @since 27.10.2014
+ */
+public class AttenuationTableTest
+{
+	// ATTRIBUTES	-----------------------------------------------
+	
+	private static final int SAMPLES = 1000000;
+	// Leaves room for the rounding errors of the comparison itself
+	private static final double TOLERANCE = 1e-9;
+	
+	
+	// CONSTRUCTOR	-----------------------------------------------
+	
+	private AttenuationTableTest()
+	{
+		// The constructor is hidden since the interface is static
+	}
+	
+	
+	// MAIN METHOD	-----------------------------------------------
+	
+	/**
+	 * Starts the test
+	 * @param args Not used
+	 */
+	public static void main(String[] args)
+	{
+		test(AttenuationTable.getDefault());
+		test(new AttenuationTable(0.1));
+		test(new AttenuationTable(0.001));
+		
+		System.out.println("All the tables are within their maximum error");
+	}
+	
+	
+	// OTHER METHODS	-------------------------------------------
+	
+	private static void test(AttenuationTable table)
+	{
+		// The ranges reach a bit past the tables so that the formulas used outside the
+		// tables are checked too
+		double maxDistance = 1.1 * Util.MAX_SOUND_DISTANCE;
+		double maxVolume = 1.1 * Util.MAX_SOUND_VOLUME;
+		double adjustmentError = 0, lostError = 0, gainError = 0;
+		
+		for (int i = 0; i <= SAMPLES; i++)
+		{
+			double distance = 1 + i * (maxDistance - 1) / SAMPLES;
+			adjustmentError = Math.max(adjustmentError, Math.abs( 
+					table.getVolumeAdjustment(distance) - 
+					Util.getVolumeAdjustment(distance)));
+			
+			distance = i * maxDistance / SAMPLES;
+			lostError = Math.max(lostError, Math.abs(table.getVolumeLostInDistance( 
+					distance) - Util.getVolumeLostInDistance(distance)));
+			
+			// The gain is compared in desibels since it's a ratio
+			double desibels = -maxVolume + i * 2 * maxVolume / SAMPLES;
+			gainError = Math.max(gainError, Math.abs(20 * Math.log10( 
+					table.getGain(desibels) / Math.pow(10, desibels / 20))));
+		}
+		
+		System.out.println("Max error " + table.getMaxError() + " dB (" + table.size() + 
+				" entries): adjustment " + adjustmentError + ", lost " + lostError + 
+				", gain " + gainError);
+		
+		check("volume adjustment", adjustmentError, table);
+		check("volume lost in distance", lostError, table);
+		check("gain", gainError, table);
+	}
+	
+	private static void check(String tableName, double error, AttenuationTable table)
+	{
+		if (error > table.getMaxError() + TOLERANCE)
+			throw new IllegalStateException("The " + tableName + " table differs from " + 
+					"the formula by " + error + " dB while only " + table.getMaxError() + 
+					" dB is allowed");
+	}
+}
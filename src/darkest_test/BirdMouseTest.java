@@ -2,6 +2,7 @@ package darkest_test;
 
 import darkest_3dSound.Ear;
 import darkest_3dSound.Ear.Side;
+import darkest_3dSound.SoundDebugOverlay;
 import darkest_utility.Util;
 import omega_world.Area;
 
@@ -25,5 +26,8 @@ public class BirdMouseTest
 		new Ear(310, 240, Side.LEFT, area);
 		new Ear(310 + (int) Util.metersToPixels(0.2), 240, Side.RIGHT, area);
 		new TestSoundSource(area);
+		
+		// Shows the ears, edges and particles
+		SoundDebugOverlay.forArea(area).setEnabled(true);
 	}
 }
@@ -0,0 +1,242 @@
+package darkest_utility;
+
+/**
+ * AttenuationTable replaces the logarithms and powers of the volume calculations with 
+ * precalculated tables. The values between the table entries are interpolated linearly and 
+ * the tables are made dense enough that no value differs from the formula in {@link Util} 
+ * by more than the given error (in desibels). The values outside the tables are 
+ * calculated with the formulas.
+ * 
+ * @author Mikko Hilpinen
+ * @since 26.10.2014
+ */
+public class AttenuationTable
+{
+	// ATTRIBUTES	------------------------------------
+	
+	/**
+	 * How many desibels the values of the default table may differ from the formulas
+	 */
+	public static final double DEFAULT_MAX_ERROR = 0.01;
+	
+	// The volume adjustment goes to infinity at zero distance, so the table starts a bit 
+	// further away
+	private static final double MIN_TABLE_DISTANCE = 16;
+	
+	private static AttenuationTable defaultTable = null;
+	
+	private final double maxError;
+	private final Table adjustment, lost, gain;
+	
+	
+	// CONSTRUCTOR	------------------------------------
+	
+	/**
+	 * Creates new tables
+	 * @param maxError How many desibels the values may differ from the formulas at 
+	 * maximum. Smaller errors require larger tables. (0, ...)
+	 */
+	public AttenuationTable(double maxError)
+	{
+		if (maxError <= 0)
+			throw new IllegalArgumentException("The maximum error must be positive");
+		
+		// Initializes attributes
+		this.maxError = maxError;
+		this.adjustment = new Table(new Curve()
+		{
+			@Override
+			public double valueAt(double pixels)
+			{
+				return Util.getVolumeAdjustment(pixels);
+			}
+		}, MIN_TABLE_DISTANCE, Util.MAX_SOUND_DISTANCE, maxError, false);
+		this.lost = new Table(new Curve()
+		{
+			@Override
+			public double valueAt(double pixels)
+			{
+				return Util.getVolumeLostInDistance(pixels);
+			}
+		}, 0, Util.MAX_SOUND_DISTANCE, maxError, false);
+		this.gain = new Table(new Curve()
+		{
+			@Override
+			public double valueAt(double desibels)
+			{
+				return Math.pow(10, desibels / 20);
+			}
+		}, -Util.MAX_SOUND_VOLUME, Util.MAX_SOUND_VOLUME, maxError, true);
+	}
+	
+	
+	// GETTERS & SETTERS	----------------------------
+	
+	/**
+	 * @return How many desibels the values may differ from the formulas at maximum
+	 */
+	public double getMaxError()
+	{
+		return this.maxError;
+	}
+	
+	/**
+	 * @return How many entries there are in the tables in total
+	 */
+	public int size()
+	{
+		return this.adjustment.values.length + this.lost.values.length + 
+				this.gain.values.length;
+	}
+	
+	
+	// OTHER METHODS	-------------------------------
+	
+	/**
+	 * @return A shared table that is accurate to {@link #DEFAULT_MAX_ERROR} desibels. The 
+	 * table is created on the first call.
+	 */
+	public static synchronized AttenuationTable getDefault()
+	{
+		if (defaultTable == null)
+			defaultTable = new AttenuationTable(DEFAULT_MAX_ERROR);
+		
+		return defaultTable;
+	}
+	
+	/**
+	 * Looks up how much the distance the sound traveled affects the volume level 
+	 * (see {@link Util#getVolumeAdjustment(double)})
+	 * @param pixelsSoundTraveled How many pixels the sound traveled
+	 * @return How much the volume of the sound is increased by the distance (in desibels)
+	 */
+	public double getVolumeAdjustment(double pixelsSoundTraveled)
+	{
+		return this.adjustment.get(pixelsSoundTraveled);
+	}
+	
+	/**
+	 * Looks up how many desibels of volume is lost during a distance 
+	 * (see {@link Util#getVolumeLostInDistance(double)})
+	 * @param pixels How many pixels the sound has traveled
+	 * @return How many desibels of volume are lost during that transition
+	 */
+	public double getVolumeLostInDistance(double pixels)
+	{
+		return this.lost.get(pixels);
+	}
+	
+	/**
+	 * Converts a volume adjustment into a linear gain
+	 * @param desibels How much the volume is adjusted (in desibels)
+	 * @return The amplitude multiplier that corresponds to the adjustment
+	 */
+	public double getGain(double desibels)
+	{
+		return this.gain.get(desibels);
+	}
+	
+	/**
+	 * Converts a volume adjustment into relative sound intensity
+	 * @param desibels How much the volume is adjusted (in desibels)
+	 * @return The energy multiplier that corresponds to the adjustment
+	 */
+	public double getEnergy(double desibels)
+	{
+		double gain = getGain(desibels);
+		return gain * gain;
+	}
+	
+	
+	// SUBCLASSES	------------------------------------
+	
+	private static interface Curve
+	{
+		public double valueAt(double x);
+	}
+	
+	private static class Table
+	{
+		// ATTRIBUTES	--------------------------------
+		
+		private final Curve curve;
+		private final double start, end, inverseStep;
+		private final double[] values;
+		
+		
+		// CONSTRUCTOR	--------------------------------
+		
+		public Table(Curve curve, double start, double end, double maxError, 
+				boolean relative)
+		{
+			this.curve = curve;
+			this.start = start;
+			this.end = end;
+			
+			// The step is halved until the error is small enough. With linear 
+			// interpolation, the largest error is always halfway between two entries.
+			int intervals = 64;
+			double[] values = sample(intervals);
+			while (getMaxError(values, relative) > maxError)
+			{
+				intervals *= 2;
+				values = sample(intervals);
+			}
+			
+			this.values = values;
+			this.inverseStep = intervals / (end - start);
+		}
+		
+		
+		// OTHER METHODS	----------------------------
+		
+		public double get(double x)
+		{
+			if (x < this.start || x >= this.end)
+				return this.curve.valueAt(x);
+			
+			double position = (x - this.start) * this.inverseStep;
+			int index = (int) position;
+			double fraction = position - index;
+			
+			return this.values[index] + fraction * (this.values[index + 1] - 
+					this.values[index]);
+		}
+		
+		private double[] sample(int intervals)
+		{
+			double[] values = new double[intervals + 1];
+			double step = (this.end - this.start) / intervals;
+			for (int i = 0; i <= intervals; i++)
+			{
+				values[i] = this.curve.valueAt(this.start + i * step);
+			}
+			
+			return values;
+		}
+		
+		private double getMaxError(double[] values, boolean relative)
+		{
+			double step = (this.end - this.start) / (values.length - 1);
+			double maxError = 0;
+			
+			for (int i = 0; i < values.length - 1; i++)
+			{
+				double real = this.curve.valueAt(this.start + (i + 0.5) * step);
+				double interpolated = (values[i] + values[i + 1]) / 2;
+				
+				// Relative errors are measured in desibels
+				double error;
+				if (relative)
+					error = Math.abs(20 * Math.log10(interpolated / real));
+				else
+					error = Math.abs(interpolated - real);
+				
+				if (error > maxError)
+					maxError = error;
+			}
+			
+			return maxError;
+		}
+	}
+}
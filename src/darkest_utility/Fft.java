@@ -0,0 +1,134 @@
+package darkest_utility;
+
+/**
+ * Fft calculates radix-2 fast fourier transforms of a fixed size. The twiddle factors and 
+ * the bit reversal permutation are calculated only once when the object is created.
+ * 
+ * @author Mikko Hilpinen
+ * @since 21.10.2014
+ */
+public class Fft
+{
+	// ATTRIBUTES	------------------------------------
+	
+	private final int size;
+	private final double[] cos, sin;
+	private final int[] reversed;
+	
+	
+	// CONSTRUCTOR	------------------------------------
+	
+	/**
+	 * Creates a new transform of the given size
+	 * @param size How many samples are transformed at once. Must be a power of two.
+	 */
+	public Fft(int size)
+	{
+		if (size < 1 || Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("The size of a fft must be a power of two");
+		
+		// Initializes attributes
+		this.size = size;
+		this.cos = new double[size / 2];
+		this.sin = new double[size / 2];
+		for (int i = 0; i < size / 2; i++)
+		{
+			this.cos[i] = Math.cos(-2 * Math.PI * i / size);
+			this.sin[i] = Math.sin(-2 * Math.PI * i / size);
+		}
+		
+		int bits = Integer.numberOfTrailingZeros(size);
+		this.reversed = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			this.reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+	
+	
+	// GETTERS & SETTERS	----------------------------
+	
+	/**
+	 * @return How many samples are transformed at once
+	 */
+	public int getSize()
+	{
+		return this.size;
+	}
+	
+	
+	// OTHER METHODS	-------------------------------
+	
+	/**
+	 * Transforms the given signal into the frequency domain. The transformation is done in 
+	 * place.
+	 * @param re The real parts of the signal
+	 * @param im The imaginary parts of the signal
+	 */
+	public void transform(double[] re, double[] im)
+	{
+		calculate(re, im, false);
+	}
+	
+	/**
+	 * Transforms the given spectrum back into the time domain. The transformation is done 
+	 * in place.
+	 * @param re The real parts of the spectrum
+	 * @param im The imaginary parts of the spectrum
+	 */
+	public void inverse(double[] re, double[] im)
+	{
+		calculate(re, im, true);
+		
+		for (int i = 0; i < this.size; i++)
+		{
+			re[i] /= this.size;
+			im[i] /= this.size;
+		}
+	}
+	
+	private void calculate(double[] re, double[] im, boolean inverse)
+	{
+		// Reorders the samples
+		for (int i = 0; i < this.size; i++)
+		{
+			int j = this.reversed[i];
+			if (j > i)
+			{
+				double temp = re[i];
+				re[i] = re[j];
+				re[j] = temp;
+				temp = im[i];
+				im[i] = im[j];
+				im[j] = temp;
+			}
+		}
+		
+		// Combines the transforms with butterflies
+		for (int length = 2; length <= this.size; length *= 2)
+		{
+			int half = length / 2;
+			int tableStep = this.size / length;
+			
+			for (int start = 0; start < this.size; start += length)
+			{
+				for (int k = 0; k < half; k++)
+				{
+					double wRe = this.cos[k * tableStep];
+					double wIm = inverse ? -this.sin[k * tableStep] : this.sin[k * tableStep];
+					
+					int even = start + k;
+					int odd = even + half;
+					
+					double oddRe = re[odd] * wRe - im[odd] * wIm;
+					double oddIm = re[odd] * wIm + im[odd] * wRe;
+					
+					re[odd] = re[even] - oddRe;
+					im[odd] = im[even] - oddIm;
+					re[even] += oddRe;
+					im[even] += oddIm;
+				}
+			}
+		}
+	}
+}
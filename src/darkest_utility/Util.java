@@ -38,6 +38,12 @@ public class Util
 	 */
 	public final static int MAX_SOUND_VOLUME = 120;
 	
+	/**
+	 * How far a sound can travel before it is considered lost (in pixels)
+	 */
+	// TODO: Find a better value here?
+	public final static int MAX_SOUND_DISTANCE = (int) metersToPixels(150);
+	
 	
 	// CONSTRUCTOR	------------------------------------
 	